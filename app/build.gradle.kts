@@ -37,6 +37,13 @@ android {
         sourceCompatibility = JavaVersion.VERSION_17
         targetCompatibility = JavaVersion.VERSION_17
     }
+
+    // Robolectric necesita los recursos (layouts, estilos) en las pruebas de la JVM.
+    testOptions {
+        unitTests.isIncludeAndroidResources = true
+        // Benchmarks opcionales: ./gradlew testDebugUnitTest -Pbenchmarks
+        unitTests.all { it.systemProperty("benchmarks", project.hasProperty("benchmarks")) }
+    }
 }
 
 dependencies {
@@ -62,6 +69,9 @@ dependencies {
 
     // Testing
     testImplementation("junit:junit:4.13.2")
+    // Robolectric: pruebas de RecyclerView/adaptadores en la JVM (bind y asignaciones por bind)
+    testImplementation("org.robolectric:robolectric:4.11.1")
+    testImplementation("androidx.test:core:1.5.0")
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.5.1")
 
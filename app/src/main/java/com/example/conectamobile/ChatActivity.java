@@ -1,32 +1,26 @@
 package com.example.conectamobile;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
+import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 
-// Importamos la librería Hannesa2 (Fork compatible con Android 14)
-import info.mqtt.android.service.MqttAndroidClient;
-import org.eclipse.paho.client.mqttv3.IMqttActionListener;
-import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.IMqttToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
-
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Clase controladora principal del sistema de mensajería.
  * Implementa una arquitectura híbrida:
@@ -35,20 +29,47 @@ import java.util.List;
  */
 public class ChatActivity extends AppCompatActivity {
 
-    // Cliente MQTT asíncrono. Se usa el fork de Hannesa2 para soporte de WorkManager.
-    private MqttAndroidClient mqttClient;
-    private String topic;
+    // Conexión MQTT compartida por toda la app: un solo buzón cubre todas las conversaciones.
+    private MqttHub mqttHub;
+    private final MqttHub.MessageListener mqttListener = (id, msg) -> onMqttMessage(msg);
+    // Presencia y "escribiendo..." del otro lado, mostrados como subtítulo de la barra.
+    private final PresenceManager.Listener presenceListener = new PresenceManager.Listener() {
+        @Override
+        public void onPresenceChanged(String uid) {
+            if (uid.equals(targetUid)) updateSubtitle();
+        }
+
+        @Override
+        public void onTypingChanged(String typingChatId, String uid) {
+            if (typingChatId.equals(chatId)) updateSubtitle();
+        }
+    };
     private String myUid, targetUid;
-    private DatabaseReference chatRef;
+    private String chatId;
+    private MessageJournal journal;
+
+    // Historial particionado por mes: solo el bucket actual se escucha en vivo.
+    static final int HOT_WINDOW = 50;
+    private String hotBucket;
+    private Query hotQuery;
+    private ChildEventListener hotListener;
+    private ChatHistoryReader historyReader;
 
     private RecyclerView recyclerView;
+    private LinearLayoutManager layoutManager;
     private ChatAdapter adapter;
-    private List<Message> messageList;
+    // Mezcla caché, Firebase y MQTT en orden y sin duplicados (ver ChatTimeline).
+    private ChatTimeline timeline;
+    // Clave más reciente restaurada de la caché, hasta confirmar que lo leído de Firebase la alcanza.
+    private String cacheNewestKey;
+    // Tiempo hasta el primer contenido en pantalla (métrica de la caché/precarga).
+    private long openedAt;
     private EditText etMessage;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        openedAt = SystemClock.uptimeMillis();
         setContentView(R.layout.activity_chat);
 
         try {
@@ -67,20 +88,28 @@ public class ChatActivity extends AppCompatActivity {
             }
 
             myUid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+            journal = MessageJournal.getInstance(this);
 
             // LÓGICA DE TÓPICOS (Interoperabilidad):
             // Determinamos si es un chat privado o el canal global para pruebas externas.
             if ("GLOBAL_CHAT_ID".equals(targetUid)) {
-                // Caso Global: Tópico fijo accesible por clientes externos (ej. MyMQTT)
-                topic = "conectamobile/global";
-                chatRef = FirebaseDatabase.getInstance().getReference("chats").child("global_chat");
+                // Caso Global: conectamobile/global/#, accesible por clientes externos (ej. MyMQTT)
+                // y protegido por un limitador de tasa por emisor (ver MqttHub / IngressFilter).
+                chatId = MqttHub.GLOBAL_CHAT_ID;
                 setTitle("Canal Público (MQTT)");
+                // El canal público crece sin control: se recortan los meses fuera de retención.
+                ChatBuckets.applyRetention(chatId, ChatBuckets.GLOBAL_RETENTION_MONTHS);
+            } else if (GroupDirectory.isGroupChat(targetUid)) {
+                // Caso Grupo: el targetUid ya es el chatId ("group:{groupId}").
+                // Un envío = una escritura en Firebase + una publicación en conectamobile/group/{groupId}.
+                chatId = targetUid;
+                setTitle(getIntent().getStringExtra("targetName"));
             } else {
                 // Caso Privado: Generamos un ID único ordenando los UIDs alfabéticamente.
                 // Esto asegura que UsuarioA_UsuarioB sea el mismo ID que UsuarioB_UsuarioA.
-                String chatId = (myUid.compareTo(targetUid) < 0) ? myUid + "_" + targetUid : targetUid + "_" + myUid;
-                topic = "conectamobile/chat/" + chatId;
-                chatRef = FirebaseDatabase.getInstance().getReference("chats").child(chatId);
+                // Los mensajes en tiempo real llegan al buzón conectamobile/inbox/{uid}/{chatId}.
+                chatId = (myUid.compareTo(targetUid) < 0) ? myUid + "_" + targetUid : targetUid + "_" + myUid;
+                setTitle(getIntent().getStringExtra("targetName"));
             }
 
             // Inicialización de componentes de UI
@@ -90,19 +119,62 @@ public class ChatActivity extends AppCompatActivity {
 
             // Configuración del RecyclerView
             // setStackFromEnd(true) hace que la lista empiece desde abajo (estilo WhatsApp)
-            LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+            layoutManager = new LinearLayoutManager(this);
             layoutManager.setStackFromEnd(true);
             recyclerView.setLayoutManager(layoutManager);
 
-            messageList = new ArrayList<>();
-            adapter = new ChatAdapter(this, messageList);
+            timeline = new ChatTimeline();
+            adapter = new ChatAdapter(this, timeline);
+            adapter.setOnRetryListener(this::retryMessage);
             recyclerView.setAdapter(adapter);
 
-            // 1. Cargar historial persistente (Funciona Offline)
-            loadHistory();
+            // 0. Caché en memoria: si el chat se abrió hace poco, se pinta al instante
+            // con su ventana de mensajes y posición de scroll; Firebase luego solo completa.
+            new ConversationStats(this).recordOpen(chatId);
+            ConversationCache.Entry cached = ConversationCache.getInstance().get(chatId);
+            Metrics.increment(cached != null ? "chat.cache_hit" : "chat.cache_miss");
+            if (cached != null) {
+                timeline.restore(cached.messages);
+                cacheNewestKey = timeline.newestKey();
+                layoutManager.scrollToPositionWithOffset(cached.scrollPosition, cached.scrollOffset);
+                reportFirstContent();
+            }
+
+            // Al llegar al tope de la lista se pide la página anterior del historial.
+            recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(@androidx.annotation.NonNull RecyclerView rv, int dx, int dy) {
+                    if (dy < 0 && !rv.canScrollVertically(-1)) loadOlderHistory();
+                }
+            });
 
-            // 2. Iniciar conexión en tiempo real (Protocolo MQTT)
-            setupMqtt();
+            // 1. Cargar historial persistente (Funciona Offline)
+            loadHistory(ChatBuckets.bucketFor(ServerClock.getInstance().now()));
+
+            // 2. Conexión en tiempo real (Protocolo MQTT): nos registramos en el demultiplexor
+            mqttHub = MqttHub.getInstance(this);
+            mqttHub.start(myUid);
+            // Si Android recrea este chat tras matar el proceso, MainActivity no pasó por onCreate:
+            // sin esto el grupo no tendría tópico suscrito ni caché de miembros. start() es idempotente.
+            GroupDirectory.getInstance().start(myUid, mqttHub);
+            mqttHub.register(chatId, mqttListener);
+
+            // 3. Presencia y escritura: cada tecla solo avisa al PresenceManager, que decide
+            // cuándo (y si) sale una señal por MQTT.
+            mqttHub.presence().addListener(presenceListener);
+            if (!GroupDirectory.isGroupChat(chatId) && !MqttHub.GLOBAL_CHAT_ID.equals(chatId)) {
+                mqttHub.presence().watch(targetUid);
+            }
+            updateSubtitle();
+            etMessage.addTextChangedListener(new TextWatcher() {
+                @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+                @Override public void onTextChanged(CharSequence s, int start, int before, int count) { }
+                @Override
+                public void afterTextChanged(Editable s) {
+                    if (s.length() > 0) mqttHub.presence().onLocalTyping(chatId);
+                    else mqttHub.presence().stopTyping(chatId);
+                }
+            });
 
             btnSend.setOnClickListener(v -> sendMessage());
 
@@ -119,132 +191,206 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     /**
-     * Configura e inicia el cliente MQTT.
-     * Utiliza un ID de cliente aleatorio (UUID) para evitar desconexiones por conflicto en el broker.
+     * LÓGICA DE RECEPCIÓN:
+     * El hub ya enrutó el mensaje a esta conversación y lo entrega en el hilo principal.
      */
-    private void setupMqtt() {
-        try {
-            // Generamos un ClientID único para evitar que el broker nos desconecte si abrimos la app en 2 dispositivos.
-            String clientId = java.util.UUID.randomUUID().toString();
-
-            // Constructor v4.3: Ya no requiere Ack.AUTO_ACK gracias a la implementación interna de WorkManager.
-            mqttClient = new MqttAndroidClient(this.getApplicationContext(), "tcp://broker.hivemq.com:1883", clientId);
+    private void onMqttMessage(Message incoming) {
+        // Evitamos duplicados visuales (Eco): si Firebase ya trajo este mensaje, no se repite.
+        int position = timeline.addRealtime(incoming);
+        // Agregamos visualmente el mensaje externo
+        if (position >= 0) recyclerView.scrollToPosition(position);
+    }
 
-            mqttClient.setCallback(new MqttCallback() {
-                @Override
-                public void connectionLost(Throwable cause) {
-                    Log.w("MQTT", "Conexión perdida", cause);
-                }
+    private void sendMessage() {
+        String text = etMessage.getText().toString();
+        if (text.isEmpty()) return;
 
-                @Override
-                public void messageArrived(String topic, MqttMessage message) {
-                    // LÓGICA DE RECEPCIÓN:
-                    // Procesamos mensajes entrantes, útil para la interoperabilidad con MyMQTT.
-                    String payload = new String(message.getPayload());
-
-                    // runOnUiThread es obligatorio porque MQTT corre en un hilo secundario de red.
-                    runOnUiThread(() -> {
-                        // Evitamos duplicados visuales (Eco) verificando si el último mensaje es igual.
-                        if (!messageList.isEmpty()) {
-                            Message lastMsg = messageList.get(messageList.size() - 1);
-                            if (lastMsg.text.equals(payload)) return;
-                        }
-
-                        // Agregamos visualmente el mensaje externo
-                        Message externalMsg = new Message("externo", payload, System.currentTimeMillis());
-                        messageList.add(externalMsg);
-                        adapter.notifyItemInserted(messageList.size() - 1);
-                        recyclerView.scrollToPosition(messageList.size() - 1);
-                    });
-                }
+        // Hora del servidor: el bucket (y el orden) no dependen del reloj de este dispositivo.
+        Message msg = new Message(myUid, text, ServerClock.getInstance().now());
+        String bucket = ChatBuckets.bucketFor(msg.timestamp);
+        if (!bucket.equals(hotBucket)) loadHistory(bucket); // Cambio de mes con el chat abierto
 
-                @Override
-                public void deliveryComplete(IMqttDeliveryToken token) { }
-            });
+        msg.id = FirebaseDatabase.getInstance().getReference("chats").child(chatId).child(bucket).push().getKey();
+        msg.state = Message.STATE_PENDING;
+        etMessage.setText(""); // También publica el fin de "escribiendo..."
 
-            // Conectamos asíncronamente
-            IMqttToken token = mqttClient.connect();
-            token.setActionCallback(new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken asyncActionToken) {
-                    Log.d("MQTT", "Conexión Exitosa (TCP 1883)");
-                    subscribeToTopic();
-                }
+        // 0. ECO OPTIMISTA:
+        // El mensaje se pinta en este mismo frame como "pendiente"; cuando Firebase confirme
+        // solo se actualiza su estado (notifyItemChanged con payload), sin reconstruir la lista.
+        recyclerView.scrollToPosition(timeline.addLocal(msg));
 
-                @Override
-                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
-                    Log.e("MQTT", "Fallo en conexión", exception);
-                    Toast.makeText(ChatActivity.this, "Modo Offline (MQTT no conectado)", Toast.LENGTH_SHORT).show();
-                }
-            });
+        journal.appendPending(msg.id, chatId, msg);
+        writeMessage(msg);
 
-        } catch (Exception e) {
-            Log.e("MQTT", "Error configuración", e);
-        }
+        // 2. CAPA DE TIEMPO REAL (MQTT):
+        // Intenta el envío inmediato al broker para notificar a otros clientes suscritos.
+        // Sin conexión, el hub lo reenvía desde el diario al reconectar.
+        if (mqttHub.isConnected()) mqttHub.publishPending(chatId, msg.id, text);
     }
 
-    private void subscribeToTopic() {
-        try {
-            // Nos suscribimos con QoS 0 (At most once) para máxima velocidad
-            if (mqttClient != null) mqttClient.subscribe(topic, 0);
-        } catch (Exception e) { e.printStackTrace(); }
+    /**
+     * 1. CAPA DE PERSISTENCIA (Firebase):
+     * Garantiza que el mensaje se guarde aunque se pierda la conexión (sincronización tardía).
+     * El diario local lo registra como pendiente hasta que Firebase confirme la escritura.
+     * Mensaje e índice de buckets se escriben en una sola operación multi-ruta; reintentar
+     * con la misma clave es idempotente.
+     */
+    private void writeMessage(Message msg) {
+        String key = msg.id;
+        String bucket = ChatBuckets.bucketFor(msg.timestamp);
+        FirebaseDatabase.getInstance().getReference()
+                .updateChildren(ChatBuckets.writePaths(chatId, bucket, key, SnapshotMapper.fromMessage(msg)))
+                .addOnSuccessListener(unused -> {
+                    journal.ack(key);
+                    updateState(msg, Message.STATE_CONFIRMED);
+                })
+                .addOnFailureListener(e -> {
+                    Log.w("Firebase", "Envío rechazado", e);
+                    updateState(msg, Message.STATE_FAILED);
+                });
     }
 
-    private void sendMessage() {
-        String text = etMessage.getText().toString();
-        if (text.isEmpty()) return;
-
-        Message msg = new Message(myUid, text, System.currentTimeMillis());
-
-        // 1. CAPA DE PERSISTENCIA (Firebase):
-        // Garantiza que el mensaje se guarde aunque se pierda la conexión (sincronización tardía).
-        chatRef.push().setValue(msg);
-        etMessage.setText("");
+    private void retryMessage(Message msg) {
+        updateState(msg, Message.STATE_PENDING);
+        writeMessage(msg);
+        if (mqttHub.isConnected()) mqttHub.publishPending(chatId, msg.id, msg.text);
+    }
 
-        // 2. CAPA DE TIEMPO REAL (MQTT):
-        // Intenta el envío inmediato al broker para notificar a otros clientes suscritos.
-        try {
-            if (mqttClient != null && mqttClient.isConnected()) {
-                mqttClient.publish(topic, new MqttMessage(text.getBytes(StandardCharsets.UTF_8)));
-            }
-        } catch (Exception e) { e.printStackTrace(); }
+    /** Reconciliación del eco optimista: solo se repinta el estado de la burbuja. */
+    private void updateState(Message msg, int state) {
+        msg.state = state;
+        timeline.stateChanged(msg);
     }
 
-    private void loadHistory() {
-        // Listener en tiempo real de Firebase.
-        // Esto maneja la actualización de UI tanto para mensajes locales como remotos.
-        chatRef.addValueEventListener(new ValueEventListener() {
+    /**
+     * Escucha en vivo solo las últimas HOT_WINDOW entradas del bucket (mes) actual.
+     * Los mensajes antiguos se piden bajo demanda con ChatHistoryReader.
+     */
+    private void loadHistory(String bucket) {
+        if (hotQuery != null) hotQuery.removeEventListener(hotListener);
+        hotBucket = bucket;
+        historyReader = new ChatHistoryReader(chatId, bucket);
+
+        hotQuery = ChatBuckets.messagesRef(chatId, bucket).orderByKey().limitToLast(HOT_WINDOW);
+        hotListener = new ChildEventListener() {
             @Override
-            public void onDataChange(@androidx.annotation.NonNull DataSnapshot snapshot) {
+            public void onChildAdded(@androidx.annotation.NonNull DataSnapshot snap, String previousChildName) {
                 try {
-                    messageList.clear();
-                    for (DataSnapshot snap : snapshot.getChildren()) {
-                        Message msg = snap.getValue(Message.class);
-                        if (msg != null) messageList.add(msg);
-                    }
-                    adapter.notifyDataSetChanged();
-                    if (!messageList.isEmpty()) recyclerView.scrollToPosition(messageList.size() - 1);
+                    historyReader.setCursor(snap.getKey());
+                    Message msg = SnapshotMapper.toMessage(snap);
+                    if (msg == null) return;
+                    // Reemplaza la copia MQTT si llegó antes; si ya estaba (caché), no hace nada.
+                    int position = timeline.addLive(msg);
+                    if (position < 0) return;
+                    recyclerView.scrollToPosition(position);
+                    reportFirstContent();
                 } catch (Exception e) { Log.e("Firebase", "Error parseando datos", e); }
             }
+            // Al deslizarse la ventana limitToLast() el mensaje sigue en pantalla: no se quita.
+            @Override public void onChildRemoved(@androidx.annotation.NonNull DataSnapshot snap) { }
+            @Override public void onChildChanged(@androidx.annotation.NonNull DataSnapshot snap, String previousChildName) { }
+            @Override public void onChildMoved(@androidx.annotation.NonNull DataSnapshot snap, String previousChildName) { }
+            @Override public void onCancelled(@androidx.annotation.NonNull DatabaseError error) { }
+        };
+        hotQuery.addChildEventListener(hotListener);
+
+        // Firebase entrega este evento después de los onChildAdded iniciales (datos ya en caché).
+        // Si el mes actual tiene pocos mensajes, completamos la pantalla con el bucket anterior.
+        hotQuery.addListenerForSingleValueEvent(new ValueEventListener() {
             @Override
-            public void onCancelled(@androidx.annotation.NonNull DatabaseError error) {}
+            public void onDataChange(@androidx.annotation.NonNull DataSnapshot snapshot) {
+                String oldest = null;
+                for (DataSnapshot child : snapshot.getChildren()) {
+                    oldest = child.getKey();
+                    break;
+                }
+                boolean full = snapshot.getChildrenCount() >= HOT_WINDOW;
+                if (resolveCacheGap(oldest, full) || !full) loadOlderHistory();
+            }
+            @Override
+            public void onCancelled(@androidx.annotation.NonNull DatabaseError error) { }
+        });
+    }
+
+    private void loadOlderHistory() {
+        ChatHistoryReader reader = historyReader;
+        reader.loadOlder(page -> {
+            if (reader != historyReader || page.isEmpty()) return;
+            int added = timeline.addOlder(page);
+            boolean gapPending = resolveCacheGap(page.get(0).id, page.size() >= ChatHistoryReader.PAGE_SIZE);
+            // Página completa ya pintada desde la caché, o aún sin llegar a ella: seguimos con la
+            // siguiente. Termina al salir del rango que la caché tenía, que es acotado.
+            if (added == 0 || gapPending) loadOlderHistory();
         });
     }
 
+    /**
+     * La ventana de la caché y lo leído de Firebase deben quedar contiguos. 'oldestKey' es la
+     * clave más antigua leída hasta ahora y 'full' indica que antes de ella quedan mensajes.
+     * - Si la caché ya alcanza esa clave, no hay hueco.
+     * - Si entre ambas hay al menos una ventana completa, la caché se descarta: la página
+     *   siguiente la reemplaza en orden, en vez de dejar un hueco entre lo viejo y lo nuevo.
+     * Devuelve true si aún no se sabe y hay que leer la página anterior.
+     */
+    private boolean resolveCacheGap(String oldestKey, boolean full) {
+        if (cacheNewestKey == null || oldestKey == null) return false;
+        if (cacheNewestKey.compareTo(oldestKey) >= 0) {
+            cacheNewestKey = null; // Se tocan: no hay hueco
+            return false;
+        }
+        if (!full) return true; // El bucket se agotó antes de llegar: sigue el anterior
+        Metrics.increment("chat.cache_gap");
+        timeline.removeOlderThan(oldestKey);
+        cacheNewestKey = null;
+        return false;
+    }
+
+    private void reportFirstContent() {
+        if (openedAt == 0) return;
+        Metrics.record("chat.time_to_content", SystemClock.uptimeMillis() - openedAt);
+        openedAt = 0;
+    }
+
+    private void updateSubtitle() {
+        ActionBar bar = getSupportActionBar();
+        if (bar == null) return;
+        PresenceManager presence = mqttHub.presence();
+        if (presence.isTyping(chatId)) {
+            bar.setSubtitle("escribiendo...");
+        } else if (!GroupDirectory.isGroupChat(chatId) && presence.isOnline(targetUid)) {
+            bar.setSubtitle("en línea");
+        } else {
+            bar.setSubtitle(null);
+        }
+    }
+
+    // Chat fuera de pantalla: no seguimos anunciando que escribimos.
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (mqttHub != null) mqttHub.presence().stopTyping(chatId);
+    }
+
     /**
      * GESTIÓN DE RECURSOS:
-     * Es crítico desconectar el cliente MQTT al destruir la actividad para evitar
-     * fugas de memoria (Memory Leaks) y consumo de batería en segundo plano.
+     * La conexión MQTT pertenece al proceso (MqttHub); aquí solo nos damos de baja
+     * del demultiplexor y de Firebase para evitar fugas de memoria (Memory Leaks).
      */
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        try {
-            if (mqttClient != null && mqttClient.isConnected()) {
-                mqttClient.disconnect();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (hotQuery != null) hotQuery.removeEventListener(hotListener);
+        if (timeline != null && timeline.size() > 0) {
+            // Guardamos la ventana y el scroll para que reabrir este chat sea instantáneo.
+            int position = layoutManager.findFirstVisibleItemPosition();
+            View first = layoutManager.findViewByPosition(position);
+            ConversationCache.getInstance().put(chatId, timeline.messages(),
+                    Math.max(position, 0), first == null ? 0 : first.getTop());
+        }
+        if (mqttHub != null) {
+            mqttHub.unregister(chatId, mqttListener);
+            mqttHub.presence().removeListener(presenceListener);
+            mqttHub.presence().unwatch(targetUid);
         }
     }
 }
\ No newline at end of file
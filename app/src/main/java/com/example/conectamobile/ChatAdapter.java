@@ -17,28 +17,82 @@ import java.util.List;
  * Maneja la lógica visual de "Burbujas":
  * - Mensajes propios: Alineados a la derecha, fondo verde.
  * - Mensajes externos: Alineados a la izquierda, fondo gris.
+ * - Mensajes propios pendientes: semitransparentes; fallidos: tocar para reintentar.
  */
-public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ViewHolder> {
+public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ViewHolder> implements ChatTimeline.Observer {
+
+    // Payload de notifyItemChanged(): solo cambió el estado de envío, no el contenido.
+    public static final Object PAYLOAD_STATE = new Object();
+
+    public interface OnRetryListener {
+        void onRetry(Message msg);
+    }
+
     private List<Message> messages;
     private Context context;
     private String currentUid;
+    private OnRetryListener retryListener;
 
-    public ChatAdapter(Context context, List<Message> messages) {
-        this.context = context;
-        this.messages = messages;
+    public ChatAdapter(Context context, ChatTimeline timeline) {
         // Obtener UID actual para distinguir mensajes propios
-        if (FirebaseAuth.getInstance().getCurrentUser() != null) {
-            this.currentUid = FirebaseAuth.getInstance().getCurrentUser().getUid();
-        } else {
-            this.currentUid = "";
-        }
+        this(context, timeline, FirebaseAuth.getInstance().getCurrentUser() != null
+                ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "");
+    }
+
+    /** Con el UID explícito (pruebas sin Firebase). */
+    public ChatAdapter(Context context, ChatTimeline timeline, String currentUid) {
+        this.context = context;
+        this.messages = timeline.messages();
+        this.currentUid = currentUid;
+        timeline.setObserver(this);
+    }
+
+    public void setOnRetryListener(OnRetryListener listener) {
+        this.retryListener = listener;
     }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.item_message, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        // Un solo listener por ViewHolder (no uno por bind): reintento de mensajes fallidos.
+        holder.container.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || retryListener == null) return;
+            Message msg = messages.get(position);
+            if (msg.state == Message.STATE_FAILED) retryListener.onRetry(msg);
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_STATE)) {
+            bindState(holder, messages.get(position));
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
+    }
+
+    // --- Cambios de ChatTimeline: siempre notificaciones puntuales, nunca notifyDataSetChanged() ---
+
+    /** Mensajes nuevos (en vivo, eco optimista, caché o página de historial sin repintar lo visible). */
+    @Override
+    public void onInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    /** Con stateOnly solo se repinta el estado de envío; si no, la fila completa (copia reemplazada). */
+    @Override
+    public void onChanged(int position, boolean stateOnly) {
+        if (stateOnly) notifyItemChanged(position, PAYLOAD_STATE);
+        else notifyItemChanged(position);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
     }
 
     @Override
@@ -50,17 +104,34 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ViewHolder> {
         // Determinar si el mensaje es mío
         boolean isMe = msg.senderId != null && msg.senderId.equals(currentUid);
 
+        // El fondo solo se cambia si la fila reciclada era del otro lado:
+        // setBackgroundResource() crea un Drawable nuevo en cada llamada.
+        int side = isMe ? ViewHolder.SIDE_ME : ViewHolder.SIDE_OTHER;
+        if (holder.boundSide != side) {
+            holder.boundSide = side;
+            holder.rootLayout.setGravity(isMe ? Gravity.END : Gravity.START);
+            holder.container.setBackgroundResource(isMe ? R.drawable.bg_message_me : R.drawable.bg_message_other);
+        }
+
         if (isMe) {
             // Estilo: Emisor (Derecha)
-            holder.rootLayout.setGravity(Gravity.END);
-            holder.container.setBackgroundResource(R.drawable.bg_message_me);
-            holder.tvUser.setVisibility(View.GONE);
+            bindState(holder, msg);
         } else {
             // Estilo: Receptor (Izquierda)
-            holder.rootLayout.setGravity(Gravity.START);
-            holder.container.setBackgroundResource(R.drawable.bg_message_other);
             holder.tvUser.setVisibility(View.VISIBLE);
             holder.tvUser.setText("Contacto");
+            holder.container.setAlpha(1f);
+        }
+    }
+
+    /** Estado de envío de un mensaje propio: pendiente (tenue), confirmado o fallido. */
+    private void bindState(ViewHolder holder, Message msg) {
+        holder.container.setAlpha(msg.state == Message.STATE_PENDING ? 0.6f : 1f);
+        if (msg.state == Message.STATE_FAILED) {
+            holder.tvUser.setVisibility(View.VISIBLE);
+            holder.tvUser.setText("No enviado · Toca para reintentar");
+        } else {
+            holder.tvUser.setVisibility(View.GONE);
         }
     }
 
@@ -68,8 +139,12 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ViewHolder> {
     public int getItemCount() { return messages.size(); }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
+        static final int SIDE_ME = 1;
+        static final int SIDE_OTHER = 2;
+
         TextView tvUser, tvBody;
         LinearLayout container, rootLayout;
+        int boundSide;
 
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
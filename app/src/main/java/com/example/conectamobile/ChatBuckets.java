@@ -0,0 +1,172 @@
+package com.example.conectamobile;
+
+import androidx.annotation.NonNull;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Particionado temporal (Sharding) del historial de chat.
+ *
+ * Estructura en Firebase:
+ * - chats/{chatId}/{yyyyMM}/{pushKey}: Mensajes agrupados por mes (UTC).
+ * - chat_buckets/{chatId}/{yyyyMM}: Índice liviano de meses existentes (valor true).
+ * - chats/{chatId}/{pushKey}: Formato anterior, sin bucket. Solo se lee, como última página
+ *   del historial (ver legacyMessages()), y la retención lo recorta; los mensajes nuevos ya
+ *   no se escriben ahí.
+ *
+ * El mes de un mensaje sale de la hora del servidor (ServerClock), no del reloj del emisor:
+ * un reloj adelantado escribiría en un bucket futuro que el historial nunca recorre.
+ *
+ * Así el listener en vivo solo observa el mes actual ("bucket caliente") y el costo
+ * de abrir un chat no crece con su antigüedad.
+ */
+public final class ChatBuckets {
+
+    // Política de retención del canal público: meses que se conservan (incluido el actual).
+    public static final int GLOBAL_RETENTION_MONTHS = 2;
+
+    // Mensajes del formato anterior que se borran por apertura del canal.
+    private static final int LEGACY_PURGE_BATCH = 200;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    // Alfabeto de las claves push de Firebase, en orden ASCII.
+    private static final String PUSH_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    private ChatBuckets() { }
+
+    /** Bucket (yyyyMM) al que pertenece una marca de tiempo. Se usa UTC para que todos los clientes coincidan. */
+    public static String bucketFor(long timestamp) {
+        Calendar cal = Calendar.getInstance(UTC);
+        cal.setTimeInMillis(timestamp);
+        int value = cal.get(Calendar.YEAR) * 100 + cal.get(Calendar.MONTH) + 1;
+        return String.valueOf(value);
+    }
+
+    /** Bucket que precede a otro (ej. 202601 -> 202512). */
+    public static String previous(String bucket) {
+        int value = Integer.parseInt(bucket);
+        int year = value / 100;
+        int month = value % 100;
+        return month == 1 ? String.valueOf((year - 1) * 100 + 12) : String.valueOf(value - 1);
+    }
+
+    public static DatabaseReference messagesRef(String chatId, String bucket) {
+        return FirebaseDatabase.getInstance().getReference("chats").child(chatId).child(bucket);
+    }
+
+    /**
+     * Mensajes del formato anterior, hermanos de los buckets. En orderByKey las claves
+     * numéricas (yyyyMM) van antes que las de texto y toda clave push empieza con '-',
+     * así que startAt("-") deja fuera los buckets sin descargarlos.
+     */
+    public static Query legacyMessages(String chatId) {
+        return FirebaseDatabase.getInstance().getReference("chats").child(chatId).orderByKey().startAt("-");
+    }
+
+    public static DatabaseReference indexRef(String chatId) {
+        return FirebaseDatabase.getInstance().getReference("chat_buckets").child(chatId);
+    }
+
+    /**
+     * Rutas para una escritura multi-ruta atómica: el mensaje y la entrada del índice
+     * de buckets viajan en una sola operación updateChildren() sobre la raíz.
+     */
+    public static Map<String, Object> writePaths(String chatId, String bucket, String key, Object message) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("chats/" + chatId + "/" + bucket + "/" + key, message);
+        updates.put("chat_buckets/" + chatId + "/" + bucket, true);
+        return updates;
+    }
+
+    /**
+     * POLÍTICA DE RETENCIÓN:
+     * Elimina los buckets más antiguos que 'months' meses. Solo se lee el índice
+     * (unas pocas claves), nunca los mensajes, así que el costo es mínimo.
+     * El corte usa la hora del servidor (ServerClock) y espera a conocerla: un dispositivo
+     * con el reloj adelantado no puede borrar meses vigentes del historial de todos.
+     */
+    public static void applyRetention(String chatId, int months) {
+        ServerClock clock = ServerClock.getInstance();
+        clock.whenSynced(() -> purgeBefore(chatId, months, clock.now()));
+    }
+
+    private static void purgeBefore(String chatId, int months, long now) {
+        String cutoff = bucketFor(now);
+        for (int i = 1; i < months; i++) cutoff = previous(cutoff);
+        final String oldestKept = cutoff;
+
+        indexRef(chatId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Map<String, Object> removals = new HashMap<>();
+                for (DataSnapshot bucket : snapshot.getChildren()) {
+                    String key = bucket.getKey();
+                    if (key != null && key.compareTo(oldestKept) < 0) {
+                        removals.put("chats/" + chatId + "/" + key, null);
+                        removals.put("chat_buckets/" + chatId + "/" + key, null);
+                    }
+                }
+                if (!removals.isEmpty()) {
+                    FirebaseDatabase.getInstance().getReference().updateChildren(removals);
+                }
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { }
+        });
+
+        // Formato anterior: toda clave push empieza con su marca de tiempo, así que los
+        // mensajes anteriores al corte se piden por rango de clave, en lotes acotados
+        // (a diferencia de un bucket, cada uno se descarga antes de borrarlo).
+        legacyMessages(chatId).endBefore(pushKeyPrefix(startOf(oldestKept))).limitToFirst(LEGACY_PURGE_BATCH)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        Map<String, Object> removals = new HashMap<>();
+                        for (DataSnapshot message : snapshot.getChildren()) {
+                            removals.put("chats/" + chatId + "/" + message.getKey(), null);
+                        }
+                        if (!removals.isEmpty()) {
+                            FirebaseDatabase.getInstance().getReference().updateChildren(removals);
+                        }
+                    }
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) { }
+                });
+    }
+
+    /** Primer milisegundo (UTC) de un bucket yyyyMM. */
+    static long startOf(String bucket) {
+        int value = Integer.parseInt(bucket);
+        Calendar cal = Calendar.getInstance(UTC);
+        cal.clear();
+        cal.set(value / 100, value % 100 - 1, 1);
+        return cal.getTimeInMillis();
+    }
+
+    /** Los 8 primeros caracteres de toda clave push generada en 'timestamp' (ms). */
+    static String pushKeyPrefix(long timestamp) {
+        char[] chars = new char[8];
+        for (int i = 7; i >= 0; i--) {
+            chars[i] = PUSH_CHARS.charAt((int) (timestamp % 64));
+            timestamp /= 64;
+        }
+        return new String(chars);
+    }
+
+    /** Lista de buckets existentes, del más reciente al más antiguo. */
+    static List<String> newestFirst(DataSnapshot index) {
+        List<String> buckets = new ArrayList<>();
+        for (DataSnapshot bucket : index.getChildren()) buckets.add(0, bucket.getKey());
+        return buckets;
+    }
+}
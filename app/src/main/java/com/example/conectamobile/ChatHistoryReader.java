@@ -0,0 +1,116 @@
+package com.example.conectamobile;
+
+import androidx.annotation.NonNull;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lector del historial antiguo de un chat, recorriendo los buckets mensuales
+ * del más reciente al más antiguo en páginas de tamaño fijo.
+ *
+ * Cada llamada a loadOlder() descarga como máximo PAGE_SIZE mensajes, por lo que el
+ * costo de leer historial reciente está acotado sin importar la antigüedad del chat.
+ *
+ * Después del bucket más antiguo se leen, con el mismo paginado, los mensajes del formato
+ * anterior a los buckets (chats/{chatId}/{pushKey}), para que no desaparezcan al actualizar.
+ */
+public class ChatHistoryReader {
+
+    public static final int PAGE_SIZE = 50;
+
+    public interface PageCallback {
+        /** Mensajes en orden cronológico (el más antiguo primero). Vacío si no hay más historial. */
+        void onPage(List<Message> messages);
+    }
+
+    private final String chatId;
+    private final String hotBucket;
+    private String bucket;        // Bucket que se está recorriendo
+    private String cursorKey;     // Clave más antigua ya mostrada dentro de 'bucket'
+    private List<String> index;   // Buckets existentes (más reciente primero), se lee una sola vez
+    private boolean legacy;       // Recorriendo los mensajes sin bucket (formato anterior)
+    private boolean loading;
+    private boolean exhausted;
+
+    public ChatHistoryReader(String chatId, String hotBucket) {
+        this.chatId = chatId;
+        this.hotBucket = hotBucket;
+        this.bucket = hotBucket;
+    }
+
+    /** El listener en vivo informa la clave más antigua que ya está en pantalla. */
+    public void setCursor(String oldestKey) {
+        if (cursorKey == null && bucket.equals(hotBucket)) cursorKey = oldestKey;
+    }
+
+    public void loadOlder(PageCallback callback) {
+        if (loading || exhausted) return;
+        loading = true;
+
+        Query query = legacy ? ChatBuckets.legacyMessages(chatId) : ChatBuckets.messagesRef(chatId, bucket).orderByKey();
+        if (cursorKey != null) query = query.endBefore(cursorKey);
+        query.limitToLast(PAGE_SIZE).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                List<Message> page = new ArrayList<>();
+                String first = null;
+                for (DataSnapshot snap : snapshot.getChildren()) {
+                    if (first == null) first = snap.getKey();
+                    Message msg = SnapshotMapper.toMessage(snap);
+                    if (msg == null) continue;
+                    page.add(msg);
+                }
+
+                if (first != null) {
+                    cursorKey = first;
+                    loading = false;
+                    callback.onPage(page);
+                } else if (legacy) {
+                    loading = false;
+                    exhausted = true;
+                    callback.onPage(page);
+                } else {
+                    // Bucket agotado: continuamos con el anterior según el índice.
+                    moveToPreviousBucket(callback);
+                }
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { loading = false; }
+        });
+    }
+
+    private void moveToPreviousBucket(PageCallback callback) {
+        if (index == null) {
+            ChatBuckets.indexRef(chatId).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    index = ChatBuckets.newestFirst(snapshot);
+                    moveToPreviousBucket(callback);
+                }
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) { loading = false; }
+            });
+            return;
+        }
+
+        // Primer bucket del índice estrictamente anterior al actual (los meses vacíos no existen).
+        String next = null;
+        for (String candidate : index) {
+            if (candidate.compareTo(bucket) < 0) { next = candidate; break; }
+        }
+
+        loading = false;
+        if (next == null) {
+            // Sin más buckets: última etapa, los mensajes del formato anterior.
+            legacy = true;
+        } else {
+            bucket = next;
+        }
+        cursorKey = null;
+        loadOlder(callback);
+    }
+}
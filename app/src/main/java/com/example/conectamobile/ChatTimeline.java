@@ -0,0 +1,208 @@
+package com.example.conectamobile;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lista de mensajes de una conversación y reglas para mezclar sus fuentes:
+ * caché en memoria, Firebase (ventana en vivo y páginas antiguas), MQTT y el eco optimista.
+ *
+ * - Orden: los mensajes con clave push se ubican por clave, que es el orden de Firebase
+ *   (orderByKey) y cronológico. Un mensaje que llega tarde o una página antigua se inserta
+ *   en su lugar, no al principio o al final a ciegas.
+ * - Duplicados: una clave ya presente se ignora. La copia MQTT de un mensaje no tiene clave
+ *   (id null): si llega primero, la copia de Firebase la reemplaza en su misma fila; si llega
+ *   después, se descarta por emisor y texto.
+ *
+ * No depende de Android: ChatActivity le entrega lo que recibe y el Observer (ChatAdapter)
+ * traduce cada cambio a una notificación puntual del RecyclerView. Todo en el hilo principal.
+ */
+public class ChatTimeline {
+
+    // Hasta dónde se busca hacia atrás la otra copia de un mensaje (MQTT <-> Firebase).
+    private static final int COPY_MATCH_WINDOW = 50;
+    // Diferencia tolerada entre la hora de llegada por MQTT y la marca del emisor en Firebase.
+    private static final long COPY_MATCH_MS = 2 * 60_000;
+
+    /** Receptor de los cambios de la lista, con posiciones ya calculadas. */
+    public interface Observer {
+        void onInserted(int position, int count);
+        void onChanged(int position, boolean stateOnly);
+        void onRemoved(int position, int count);
+    }
+
+    private final List<Message> messages = new ArrayList<>();
+    // Claves ya en la lista: evita duplicar lo pintado desde la caché al llegar Firebase.
+    private final Set<String> knownIds = new HashSet<>();
+    // Mensajes con clave que ya absorbieron su copia MQTT (una sola copia por mensaje).
+    private final Set<String> pairedIds = new HashSet<>();
+    private Observer observer;
+
+    public List<Message> messages() { return messages; }
+
+    public void setObserver(Observer observer) { this.observer = observer; }
+
+    public int size() { return messages.size(); }
+
+    /** Clave del mensaje más reciente con clave (null si no hay ninguno). */
+    public String newestKey() {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).id != null) return messages.get(i).id;
+        }
+        return null;
+    }
+
+    /** Ventana restaurada de la caché, ya ordenada. */
+    public void restore(List<Message> cached) {
+        int start = messages.size();
+        for (Message m : cached) {
+            if (m.id == null || knownIds.add(m.id)) messages.add(m);
+        }
+        if (messages.size() > start) notifyInserted(start, messages.size() - start);
+    }
+
+    /** Eco optimista de un mensaje propio: siempre al final. Devuelve su posición. */
+    public int addLocal(Message msg) {
+        if (msg.id != null) knownIds.add(msg.id);
+        messages.add(msg);
+        notifyInserted(messages.size() - 1, 1);
+        return messages.size() - 1;
+    }
+
+    /** Mensaje recibido por MQTT. Devuelve su posición, o -1 si es una copia ya presente. */
+    public int addRealtime(Message msg) {
+        int copy = findKeyedCopy(msg);
+        if (copy >= 0) {
+            pairedIds.add(messages.get(copy).id);
+            return -1;
+        }
+        messages.add(msg);
+        notifyInserted(messages.size() - 1, 1);
+        return messages.size() - 1;
+    }
+
+    /**
+     * Mensaje de la ventana en vivo de Firebase. Devuelve su posición, o -1 si ya estaba.
+     * Si su copia MQTT está en pantalla, la reemplaza en la misma fila.
+     */
+    public int addLive(Message msg) {
+        if (msg.id != null && !knownIds.add(msg.id)) return -1;
+        int copy = findRealtimeCopy(msg);
+        if (copy >= 0) {
+            messages.set(copy, msg);
+            pairedIds.add(msg.id);
+            if (observer != null) observer.onChanged(copy, false);
+            return copy;
+        }
+        // Desde el final: lo habitual es que el mensaje sea el más reciente.
+        int position = messages.size();
+        while (position > 0 && isAfter(messages.get(position - 1), msg.id)) position--;
+        messages.add(position, msg);
+        notifyInserted(position, 1);
+        return position;
+    }
+
+    /**
+     * Página de historial anterior, en orden ascendente. Cada mensaje nuevo se inserta en su
+     * lugar por clave; los tramos contiguos se notifican juntos. Devuelve cuántos eran nuevos.
+     */
+    public int addOlder(List<Message> page) {
+        int added = 0;
+        int position = 0;
+        int runStart = -1, runCount = 0;
+        for (Message m : page) {
+            if (m.id == null || !knownIds.add(m.id)) continue;
+            // La página viene ordenada: cada inserción queda a la derecha de la anterior.
+            while (position < messages.size() && isBefore(messages.get(position), m.id)) position++;
+            messages.add(position, m);
+            if (runStart >= 0 && position == runStart + runCount) {
+                runCount++;
+            } else {
+                if (runStart >= 0) notifyInserted(runStart, runCount);
+                runStart = position;
+                runCount = 1;
+            }
+            position++;
+            added++;
+        }
+        if (runStart >= 0) notifyInserted(runStart, runCount);
+        return added;
+    }
+
+    /**
+     * Quita los mensajes anteriores a 'key' (una ventana de caché que quedó separada de lo
+     * leído en Firebase por un hueco). Sus claves se olvidan: una página posterior puede
+     * volver a traerlos en su lugar. Devuelve cuántos se quitaron.
+     */
+    public int removeOlderThan(String key) {
+        int count = 0;
+        while (count < messages.size()) {
+            Message m = messages.get(count);
+            if (m.id != null && m.id.compareTo(key) >= 0) break;
+            if (m.id != null) {
+                knownIds.remove(m.id);
+                pairedIds.remove(m.id);
+            }
+            count++;
+        }
+        if (count == 0) return 0;
+        messages.subList(0, count).clear();
+        if (observer != null) observer.onRemoved(0, count);
+        return count;
+    }
+
+    /** Cambió el estado de envío de un mensaje propio: casi siempre está al final. */
+    public void stateChanged(Message msg) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) == msg) {
+                if (observer != null) observer.onChanged(i, true);
+                return;
+            }
+        }
+    }
+
+    // --- Búsquedas ---
+
+    // Un mensaje sin clave (MQTT) detiene el recorrido: su lugar lo fijó su hora de llegada.
+    private static boolean isAfter(Message m, String key) {
+        return m.id != null && key != null && m.id.compareTo(key) > 0;
+    }
+
+    private static boolean isBefore(Message m, String key) {
+        return m.id != null && m.id.compareTo(key) < 0;
+    }
+
+    /** Copia MQTT (sin clave) de un mensaje que acaba de llegar desde Firebase. */
+    private int findRealtimeCopy(Message msg) {
+        int stop = Math.max(0, messages.size() - COPY_MATCH_WINDOW);
+        for (int i = messages.size() - 1; i >= stop; i--) {
+            Message m = messages.get(i);
+            if (m.id == null && isSameContent(m, msg)) return i;
+        }
+        return -1;
+    }
+
+    /** Mensaje con clave, aún sin copia MQTT, del que 'msg' es la copia. */
+    private int findKeyedCopy(Message msg) {
+        int stop = Math.max(0, messages.size() - COPY_MATCH_WINDOW);
+        for (int i = messages.size() - 1; i >= stop; i--) {
+            Message m = messages.get(i);
+            if (m.id != null && !pairedIds.contains(m.id) && isSameContent(m, msg)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isSameContent(Message a, Message b) {
+        if (a.text == null || !a.text.equals(b.text)) return false;
+        if (Math.abs(a.timestamp - b.timestamp) > COPY_MATCH_MS) return false;
+        // Publicadores sin identidad en el tópico (clientes externos, versiones anteriores).
+        return a.senderId == null || b.senderId == null || a.senderId.equals(b.senderId)
+                || MqttHub.ANONYMOUS_SENDER.equals(a.senderId) || MqttHub.ANONYMOUS_SENDER.equals(b.senderId);
+    }
+
+    private void notifyInserted(int position, int count) {
+        if (observer != null) observer.onInserted(position, count);
+    }
+}
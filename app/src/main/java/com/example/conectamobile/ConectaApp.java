@@ -1,6 +1,8 @@
 package com.example.conectamobile;
 
+import android.app.ActivityManager;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import com.google.firebase.database.FirebaseDatabase;
 
 /**
@@ -10,6 +12,10 @@ import com.google.firebase.database.FirebaseDatabase;
  * Objetivo: Configurar la persistencia de datos offline.
  */
 public class ConectaApp extends Application {
+
+    // Presupuesto normal de la ConversationCache; onTrimMemory() lo reduce por fracciones.
+    private long cacheBudget = ConversationCache.DEFAULT_MAX_BYTES;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -19,5 +25,39 @@ public class ConectaApp extends Application {
         // 1. Cargue el chat y contactos sin conexión a internet.
         // 2. Encole mensajes enviados en "Modo Avión" y los envíe al recuperar red.
         FirebaseDatabase.getInstance().setPersistenceEnabled(true);
+
+        // Hora del servidor: empieza a medir el desfase del reloj desde el primer contacto.
+        ServerClock.getInstance();
+
+        // Diario local de mensajes: la recuperación tras un crash corre en su propio hilo.
+        MessageJournal.getInstance(this);
+
+        // Política MQTT: se crea aquí para contar desde el inicio las Activities en primer plano.
+        MqttConnectionPolicy.getInstance(this);
+
+        // Presupuesto de la caché de conversaciones: 1/32 del heap asignado a la app.
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        cacheBudget = am.getMemoryClass() * 1024L * 1024L / 32;
+        ConversationCache.getInstance().setMaxBytes(cacheBudget);
+    }
+
+    /**
+     * El sistema pide memoria: la caché es reconstruible desde Firebase, así que se achica
+     * primero (LRU: se conservan los chats más recientes). Pasar a segundo plano
+     * (UI_HIDDEN, BACKGROUND) no es escasez: la caché se conserva para reabrir al instante
+     * y con lo que dejó la precarga. El presupuesto reducido se mantiene mientras viva el proceso.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ConversationCache cache = ConversationCache.getInstance();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            cache.setMaxBytes(0); // Próximo proceso en ser eliminado
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.setMaxBytes(Math.min(cache.getMaxBytes(), cacheBudget / 4));
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.setMaxBytes(Math.min(cache.getMaxBytes(), cacheBudget / 2));
+        }
     }
 }
\ No newline at end of file
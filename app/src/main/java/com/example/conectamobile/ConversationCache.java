@@ -0,0 +1,98 @@
+package com.example.conectamobile;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caché en memoria (nivel de proceso) de las conversaciones abiertas recientemente.
+ *
+ * Guarda la ventana de mensajes y la posición de scroll de cada chat, indexada por chatId,
+ * para que reabrir una conversación pinte al instante sin esperar a Firebase.
+ *
+ * Expulsión LRU acotada por BYTES estimados retenidos (no por cantidad de entradas):
+ * un chat con mensajes largos ocupa más presupuesto que uno con pocos mensajes cortos.
+ */
+public class ConversationCache {
+
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+
+    // Estimación de memoria: cabecera de objeto + referencias + String (char[] de 2 bytes en el peor caso).
+    private static final int MESSAGE_OVERHEAD_BYTES = 64;
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private static ConversationCache instance;
+
+    /** Instantánea de una conversación. */
+    public static class Entry {
+        public final List<Message> messages;
+        public final int scrollPosition;  // Primer elemento visible
+        public final int scrollOffset;    // Desplazamiento en píxeles de ese elemento
+        final long bytes;
+
+        public Entry(List<Message> messages, int scrollPosition, int scrollOffset) {
+            this.messages = messages;
+            this.scrollPosition = scrollPosition;
+            this.scrollOffset = scrollOffset;
+            this.bytes = estimateBytes(messages);
+        }
+    }
+
+    // accessOrder = true: cada get() mueve la entrada al final (más reciente).
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long currentBytes;
+
+    public static synchronized ConversationCache getInstance() {
+        if (instance == null) instance = new ConversationCache(DEFAULT_MAX_BYTES);
+        return instance;
+    }
+
+    public ConversationCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Entry get(String chatId) {
+        return entries.get(chatId);
+    }
+
+    /** Guarda una copia de la ventana de mensajes; la lista del llamador puede seguir mutando. */
+    public synchronized void put(String chatId, List<Message> messages, int scrollPosition, int scrollOffset) {
+        Entry entry = new Entry(new ArrayList<>(messages), scrollPosition, scrollOffset);
+        Entry old = entries.put(chatId, entry);
+        if (old != null) currentBytes -= old.bytes;
+        currentBytes += entry.bytes;
+        trimToBudget();
+    }
+
+    /** Cambia el presupuesto (ej. reducirlo ante onTrimMemory) y expulsa lo que sobre. */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToBudget();
+    }
+
+    public synchronized long getMaxBytes() { return maxBytes; }
+
+    public synchronized long sizeBytes() { return currentBytes; }
+
+    private void trimToBudget() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            // El primero del orden de acceso es el menos usado recientemente.
+            currentBytes -= it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    static long estimateBytes(List<Message> messages) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        for (Message m : messages) {
+            bytes += MESSAGE_OVERHEAD_BYTES;
+            if (m.text != null) bytes += 2L * m.text.length();
+            if (m.senderId != null) bytes += 2L * m.senderId.length();
+        }
+        return bytes;
+    }
+}
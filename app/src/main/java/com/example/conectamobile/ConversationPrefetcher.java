@@ -0,0 +1,130 @@
+package com.example.conectamobile;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Precarga en segundo plano de los últimos mensajes de las conversaciones
+ * que el usuario probablemente abrirá (según ConversationStats).
+ *
+ * - Corre en un hilo de baja prioridad y descarga un chat a la vez.
+ * - Presupuesto de ancho de banda: MAX_BYTES_PER_RUN bytes estimados por ejecución.
+ * - Presupuesto de memoria: no usa más de la mitad de la ConversationCache,
+ *   para no expulsar las conversaciones que el usuario abrió de verdad.
+ * - cancel() detiene la ejecución en curso (ej. la app pasa a segundo plano).
+ */
+public class ConversationPrefetcher {
+
+    private static final String TAG = "Prefetch";
+    private static final int MAX_CHATS = 3;
+    // La misma ventana que escucha ChatActivity: al abrir el chat, Firebase no trae nada
+    // más antiguo que la caché y solo completa lo que llegó después de la precarga.
+    private static final int MESSAGES_PER_CHAT = ChatActivity.HOT_WINDOW;
+    private static final long MAX_BYTES_PER_RUN = 256 * 1024;
+    private static final long FETCH_TIMEOUT_SECONDS = 10;
+
+    // Un solo hilo para todo el proceso: cada MainActivity crea su ConversationPrefetcher,
+    // pero no su propio hilo. Es daemon, así que nunca retiene el proceso.
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "conversation-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConversationStats stats;
+    private final ConversationCache cache = ConversationCache.getInstance();
+
+    // Cada ejecución tiene su generación; cancel() la invalida.
+    private volatile int generation;
+
+    public ConversationPrefetcher(Context context) {
+        stats = new ConversationStats(context);
+    }
+
+    public void start() {
+        int run = ++generation;
+        executor.execute(() -> prefetch(run));
+    }
+
+    public void cancel() {
+        generation++;
+    }
+
+    private void prefetch(int run) {
+        long budget = MAX_BYTES_PER_RUN;
+        int fetched = 0;
+        String bucket = ChatBuckets.bucketFor(ServerClock.getInstance().now());
+
+        for (String chatId : stats.rankedChats(MAX_CHATS)) {
+            if (run != generation) {
+                Metrics.increment("prefetch.cancelled");
+                return;
+            }
+            if (cache.get(chatId) != null) continue; // Ya está caliente
+
+            List<Message> messages = fetch(chatId, bucket);
+            if (messages == null || messages.isEmpty()) continue;
+
+            long bytes = ConversationCache.estimateBytes(messages);
+            budget -= bytes;
+            Metrics.add("prefetch.bytes", bytes);
+            if (budget < 0) break;
+            if (cache.sizeBytes() + bytes > cache.getMaxBytes() / 2) break;
+
+            if (run != generation) return;
+            cache.put(chatId, messages, messages.size() - 1, 0);
+            fetched++;
+        }
+        Metrics.add("prefetch.chats", fetched);
+        Log.d(TAG, "Precargados " + fetched + " chats");
+    }
+
+    /**
+     * Descarga la ventana reciente del bucket actual. Firebase responde en el hilo principal,
+     * por lo que el hilo de precarga espera el resultado y procesa el snapshot él mismo.
+     */
+    private List<Message> fetch(String chatId, String bucket) {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<DataSnapshot> result = new AtomicReference<>();
+        ChatBuckets.messagesRef(chatId, bucket).orderByKey().limitToLast(MESSAGES_PER_CHAT)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        result.set(snapshot);
+                        done.countDown();
+                    }
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) { done.countDown(); }
+                });
+        try {
+            if (!done.await(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        DataSnapshot snapshot = result.get();
+        if (snapshot == null) return null;
+
+        List<Message> messages = new ArrayList<>();
+        for (DataSnapshot snap : snapshot.getChildren()) {
+            Message msg = SnapshotMapper.toMessage(snap);
+            if (msg == null) continue;
+            messages.add(msg);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.conectamobile;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estadísticas de uso de conversaciones (cuántas veces y cuándo se abrió cada chat).
+ * Se guardan en SharedPreferences con el formato "chatId" -> "aperturas:últimaApertura".
+ * Alimentan al prefetcher para decidir qué chats es probable que se abran a continuación.
+ */
+public class ConversationStats {
+
+    // Vida media de la recencia: un chat abierto hace 3 días pesa la mitad que uno de hoy.
+    private static final double HALF_LIFE_MS = 3 * 24 * 60 * 60 * 1000.0;
+
+    private final SharedPreferences prefs;
+
+    public ConversationStats(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences("conversation_stats", Context.MODE_PRIVATE);
+    }
+
+    public void recordOpen(String chatId) {
+        long[] stat = parse(prefs.getString(chatId, null));
+        prefs.edit().putString(chatId, (stat[0] + 1) + ":" + System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Chats ordenados por puntaje: frecuencia de uso ponderada por la recencia de la última apertura.
+     */
+    public List<String> rankedChats(int limit) {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Double>> scored = new ArrayList<>();
+        for (Map.Entry<String, ?> e : prefs.getAll().entrySet()) {
+            long[] stat = parse((String) e.getValue());
+            double recency = Math.pow(0.5, (now - stat[1]) / HALF_LIFE_MS);
+            scored.add(new AbstractMap.SimpleEntry<>(e.getKey(), (1 + Math.log(stat[0])) * recency));
+        }
+        Collections.sort(scored, (a, b) -> Double.compare(b.getValue(), a.getValue()));
+
+        List<String> ranked = new ArrayList<>();
+        for (int i = 0; i < scored.size() && i < limit; i++) ranked.add(scored.get(i).getKey());
+        return ranked;
+    }
+
+    private static long[] parse(String value) {
+        if (value == null) return new long[]{0, 0};
+        int sep = value.indexOf(':');
+        return new long[]{Long.parseLong(value.substring(0, sep)), Long.parseLong(value.substring(sep + 1))};
+    }
+}
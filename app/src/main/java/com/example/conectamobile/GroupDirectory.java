@@ -0,0 +1,192 @@
+package com.example.conectamobile;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ServerValue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chats grupales: creación, membresía y caché local de miembros.
+ *
+ * Estructura en Firebase:
+ * - groups/{groupId}: { name, createdBy, createdAt, members: { uid: true } }
+ * - user_groups/{uid}/{groupId}: nombre del grupo (para listar sin leer miembros).
+ * - chats/group:{groupId}/{yyyyMM}/...: Mensajes, igual que un chat privado.
+ *
+ * ENVÍO: Una escritura en Firebase y una publicación MQTT en conectamobile/group/{groupId}/{uid}.
+ * El emisor nunca recorre la lista de miembros; el broker hace el fan-out a los suscriptores.
+ * La única operación O(miembros) es crear el grupo (se escribe user_groups de cada uno).
+ *
+ * Los miembros se mantienen en un HashSet por grupo, actualizado de forma incremental
+ * (ChildEventListener), así que consultar la membresía es O(1). MqttHub la consulta con
+ * cada mensaje de grupo: el tópico lo puede publicar cualquier cliente del broker.
+ */
+public class GroupDirectory {
+
+    private static final String TAG = "Groups";
+
+    /** Prefijo del chatId (y del targetUid del Intent) que identifica a un grupo. */
+    public static final String CHAT_PREFIX = "group:";
+
+    public interface Listener {
+        /** El usuario se unió a un grupo (o se cargó al iniciar). Se invoca en el hilo principal. */
+        void onGroupAdded(String groupId, String name);
+    }
+
+    private static GroupDirectory instance;
+
+    private final Map<String, String> names = new LinkedHashMap<>();
+    private final Map<String, Set<String>> members = new HashMap<>();
+    private final Map<String, ChildEventListener> memberListeners = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private String myUid;
+    private DatabaseReference myGroupsRef;
+    private ChildEventListener myGroupsListener;
+
+    public static synchronized GroupDirectory getInstance() {
+        if (instance == null) instance = new GroupDirectory();
+        return instance;
+    }
+
+    public static boolean isGroupChat(String chatId) {
+        return chatId.startsWith(CHAT_PREFIX);
+    }
+
+    public static String chatIdFor(String groupId) {
+        return CHAT_PREFIX + groupId;
+    }
+
+    public static String groupIdOf(String chatId) {
+        return chatId.substring(CHAT_PREFIX.length());
+    }
+
+    /** Empieza a seguir los grupos del usuario y se los informa al hub MQTT. */
+    public void start(String uid, MqttHub hub) {
+        if (uid.equals(myUid)) return;
+        stop();
+        myUid = uid;
+
+        myGroupsRef = FirebaseDatabase.getInstance().getReference("user_groups").child(uid);
+        // Con la persistencia offline activa, la lista de grupos y sus miembros quedan en disco.
+        myGroupsRef.keepSynced(true);
+        myGroupsListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snap, String previousChildName) {
+                String groupId = snap.getKey();
+                String name = String.valueOf(snap.getValue());
+                names.put(groupId, name);
+                watchMembers(groupId);
+                hub.setGroups(names.keySet());
+                for (Listener l : new ArrayList<>(listeners)) l.onGroupAdded(groupId, name);
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snap) {
+                String groupId = snap.getKey();
+                names.remove(groupId);
+                unwatchMembers(groupId);
+                hub.setGroups(names.keySet());
+            }
+
+            @Override public void onChildChanged(@NonNull DataSnapshot snap, String previousChildName) { }
+            @Override public void onChildMoved(@NonNull DataSnapshot snap, String previousChildName) { }
+            @Override public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Error leyendo grupos: " + error.getMessage());
+            }
+        };
+        myGroupsRef.addChildEventListener(myGroupsListener);
+    }
+
+    public void stop() {
+        if (myGroupsRef != null) {
+            myGroupsRef.removeEventListener(myGroupsListener);
+            myGroupsRef.keepSynced(false);
+        }
+        for (String groupId : new ArrayList<>(memberListeners.keySet())) unwatchMembers(groupId);
+        names.clear();
+        myUid = null;
+        myGroupsRef = null;
+    }
+
+    public void addListener(Listener listener) { listeners.add(listener); }
+
+    public void removeListener(Listener listener) { listeners.remove(listener); }
+
+    public Map<String, String> groups() { return new LinkedHashMap<>(names); }
+
+    public boolean isMember(String groupId, String uid) {
+        Set<String> set = members.get(groupId);
+        return set != null && set.contains(uid);
+    }
+
+    public int memberCount(String groupId) {
+        Set<String> set = members.get(groupId);
+        return set == null ? 0 : set.size();
+    }
+
+    /**
+     * Crea un grupo en una sola escritura multi-ruta: nodo del grupo más la entrada
+     * user_groups de cada miembro (el creador se incluye siempre).
+     */
+    public String createGroup(String name, Collection<String> memberUids) {
+        DatabaseReference root = FirebaseDatabase.getInstance().getReference();
+        String groupId = root.child("groups").push().getKey();
+
+        Set<String> all = new HashSet<>(memberUids);
+        all.add(myUid);
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("groups/" + groupId + "/name", name);
+        updates.put("groups/" + groupId + "/createdBy", myUid);
+        updates.put("groups/" + groupId + "/createdAt", ServerValue.TIMESTAMP);
+        for (String uid : all) {
+            updates.put("groups/" + groupId + "/members/" + uid, true);
+            updates.put("user_groups/" + uid + "/" + groupId, name);
+        }
+        root.updateChildren(updates);
+        return groupId;
+    }
+
+    private void watchMembers(String groupId) {
+        if (memberListeners.containsKey(groupId)) return;
+        Set<String> set = new HashSet<>();
+        members.put(groupId, set);
+
+        DatabaseReference ref = FirebaseDatabase.getInstance().getReference("groups").child(groupId).child("members");
+        ref.keepSynced(true);
+        ChildEventListener listener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snap, String previousChildName) { set.add(snap.getKey()); }
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snap) { set.remove(snap.getKey()); }
+            @Override public void onChildChanged(@NonNull DataSnapshot snap, String previousChildName) { }
+            @Override public void onChildMoved(@NonNull DataSnapshot snap, String previousChildName) { }
+            @Override public void onCancelled(@NonNull DatabaseError error) { }
+        };
+        ref.addChildEventListener(listener);
+        memberListeners.put(groupId, listener);
+    }
+
+    private void unwatchMembers(String groupId) {
+        ChildEventListener listener = memberListeners.remove(groupId);
+        if (listener != null) {
+            DatabaseReference ref = FirebaseDatabase.getInstance().getReference("groups").child(groupId).child("members");
+            ref.removeEventListener(listener);
+            ref.keepSynced(false);
+        }
+        members.remove(groupId);
+    }
+}
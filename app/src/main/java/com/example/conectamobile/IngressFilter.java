@@ -0,0 +1,142 @@
+package com.example.conectamobile;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filtro de entrada para tópicos abiertos a cualquier cliente MQTT: el canal público y,
+ * con otros límites, el buzón, los grupos y la presencia (ver MqttHub).
+ *
+ * Se aplica en el hilo de MQTT, ANTES de tocar el hilo principal, el diario o la lista:
+ * 1. TokenBucket por emisor: un publicador ruidoso solo se silencia a sí mismo.
+ * 2. Colapso: un mensaje idéntico al último encolado del mismo emisor no ocupa un lugar
+ *    nuevo, solo incrementa su contador de repeticiones.
+ * 3. TokenBucket global: tope de mensajes por segundo aunque el flood venga de muchos emisores.
+ * 4. Cola acotada: si el hilo principal no alcanza a drenar, se descarta lo más antiguo.
+ *
+ * Cada decisión se contabiliza en Metrics con el prefijo indicado (ej. "ingress.global.dropped_sender").
+ * El reloj se recibe como parámetro para poder reproducir un flood en pruebas de la JVM.
+ */
+public class IngressFilter {
+
+    public enum Verdict { ACCEPTED, COLLAPSED, DROPPED_SENDER, DROPPED_GLOBAL }
+
+    /** Mensaje admitido. 'repeats' cuenta las copias idénticas colapsadas en él. */
+    public static final class Item {
+        public final String sender;
+        public final String payload;
+        int repeats;
+
+        Item(String sender, String payload) {
+            this.sender = sender;
+            this.payload = payload;
+        }
+
+        public int repeats() { return repeats; }
+    }
+
+    private final String metricPrefix;
+    private final int queueCapacity;
+    private final double senderBurst;
+    private final double senderPerSecond;
+    private final TokenBucket global;
+
+    private final ArrayDeque<Item> queue = new ArrayDeque<>();
+    private final Map<String, Item> lastQueued = new HashMap<>(); // emisor -> su último mensaje en cola
+    private final LinkedHashMap<String, TokenBucket> senders;
+
+    public IngressFilter(String metricPrefix, int queueCapacity, double senderBurst, double senderPerSecond,
+                         double globalBurst, double globalPerSecond, int maxSenders, long nowMs) {
+        this.metricPrefix = metricPrefix + ".";
+        this.queueCapacity = queueCapacity;
+        this.senderBurst = senderBurst;
+        this.senderPerSecond = senderPerSecond;
+        this.global = new TokenBucket(globalBurst, globalPerSecond, nowMs);
+        // LRU acotado: un atacante que rota identidades no hace crecer el mapa sin límite
+        // (y cada identidad nueva sigue sujeta al tope global).
+        this.senders = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                if (size() <= maxSenders) return false;
+                Metrics.increment(IngressFilter.this.metricPrefix + "senders_evicted");
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Canal público: 5 mensajes de ráfaga y 2/s por emisor; 40 de ráfaga y 20/s en total;
+     * hasta 200 mensajes esperando al hilo principal.
+     */
+    public static IngressFilter forPublicChannel(long nowMs) {
+        return new IngressFilter("ingress.global", 200, 5, 2, 40, 20, 256, nowMs);
+    }
+
+    /**
+     * Buzón, grupos y presencia: el emisor es el tópico completo (una conversación, un miembro
+     * de grupo o un contacto). 20 de ráfaga y 10/s por tópico, holgado para la presencia
+     * retenida que llega junta al suscribirse; 100 de ráfaga y 50/s en total por conexión,
+     * para quien rote subtópicos; hasta 500 mensajes esperando al hilo principal.
+     */
+    public static IngressFilter forPrivateTopics(long nowMs) {
+        return new IngressFilter("ingress.topics", 500, 20, 10, 100, 50, 512, nowMs);
+    }
+
+    /** Llamado desde el hilo de MQTT por cada mensaje entrante. */
+    public synchronized Verdict offer(String sender, String payload, long nowMs) {
+        Metrics.increment(metricPrefix + "received");
+
+        TokenBucket bucket = senders.get(sender);
+        if (bucket == null) {
+            bucket = new TokenBucket(senderBurst, senderPerSecond, nowMs);
+            senders.put(sender, bucket);
+        }
+        if (!bucket.tryAcquire(nowMs)) {
+            Metrics.increment(metricPrefix + "dropped_sender");
+            return Verdict.DROPPED_SENDER;
+        }
+
+        Item last = lastQueued.get(sender);
+        if (last != null && last.payload.equals(payload)) {
+            last.repeats++;
+            Metrics.increment(metricPrefix + "collapsed");
+            return Verdict.COLLAPSED;
+        }
+
+        if (!global.tryAcquire(nowMs)) {
+            Metrics.increment(metricPrefix + "dropped_global");
+            return Verdict.DROPPED_GLOBAL;
+        }
+
+        if (queue.size() >= queueCapacity) {
+            Item oldest = queue.pollFirst();
+            if (lastQueued.get(oldest.sender) == oldest) lastQueued.remove(oldest.sender);
+            Metrics.increment(metricPrefix + "dropped_overflow");
+        }
+        Item item = new Item(sender, payload);
+        queue.addLast(item);
+        lastQueued.put(sender, item);
+        Metrics.increment(metricPrefix + "accepted");
+        return Verdict.ACCEPTED;
+    }
+
+    /** Llamado desde el hilo principal: entrega como mucho 'max' mensajes por vuelta. */
+    public synchronized List<Item> poll(int max) {
+        int n = Math.min(max, queue.size());
+        List<Item> batch = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Item item = queue.pollFirst();
+            if (lastQueued.get(item.sender) == item) lastQueued.remove(item.sender);
+            batch.add(item);
+        }
+        return batch;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+}
@@ -4,20 +4,19 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.EditText;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Controlador de la Pantalla Principal.
@@ -30,8 +29,21 @@ public class MainActivity extends AppCompatActivity {
     private RecyclerView recyclerView;
     private UserAdapter adapter;
     private List<User> userList;
-    private DatabaseReference mDatabase;
+    private UserDirectory userDirectory;
+    private final GroupDirectory.Listener groupListener = this::onGroupAdded;
+    // Presencia y "escribiendo..." de cada fila: se repinta solo el estado (payload), en O(1).
+    private final PresenceManager.Listener presenceListener = new PresenceManager.Listener() {
+        @Override
+        public void onPresenceChanged(String uid) { refreshPresence(uid); }
+
+        @Override
+        public void onTypingChanged(String chatId, String uid) {
+            refreshPresence(GroupDirectory.isGroupChat(chatId) ? chatId : uid);
+        }
+    };
+    private PresenceManager presence;
     private String myUid;
+    private ConversationPrefetcher prefetcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,7 +57,13 @@ public class MainActivity extends AppCompatActivity {
         }
 
         myUid = FirebaseAuth.getInstance().getCurrentUser().getUid();
-        mDatabase = FirebaseDatabase.getInstance().getReference("users");
+
+        // Conexión MQTT única: el buzón personal recibe todas las conversaciones desde ya.
+        MqttHub mqttHub = MqttHub.getInstance(this);
+        mqttHub.start(myUid);
+        // Grupos: un tópico por grupo y caché local de miembros.
+        GroupDirectory.getInstance().start(myUid, mqttHub);
+        reconcileJournal();
 
         // Configuración de Lista (RecyclerView)
         recyclerView = findViewById(R.id.recyclerViewUsers);
@@ -53,6 +71,9 @@ public class MainActivity extends AppCompatActivity {
 
         userList = new ArrayList<>();
         adapter = new UserAdapter(this, userList);
+        presence = mqttHub.presence();
+        adapter.setPresence(presence);
+        presence.addListener(presenceListener);
         recyclerView.setAdapter(adapter);
 
         // Botón Flotante (FAB) para Chat Global
@@ -67,29 +88,116 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, "Entrando a Chat Público...", Toast.LENGTH_SHORT).show();
         });
 
-        // Cargar usuarios en tiempo real
+        // Cargar usuarios: primero el directorio local, luego solo los cambios (Delta Sync)
+        userDirectory = new UserDirectory(this);
         loadUsers();
+        loadGroups();
+
+        prefetcher = new ConversationPrefetcher(this);
+    }
+
+    // Mientras la lista de contactos está visible precargamos los chats más usados.
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (prefetcher != null) prefetcher.start();
+    }
+
+    // App en segundo plano (o se abrió un chat): se cancela la precarga en curso.
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (prefetcher != null) prefetcher.cancel();
+    }
+
+    /**
+     * Pendientes del diario que quedaron sin ack (el proceso murió antes del listener):
+     * se reemite la misma escritura multi-ruta con la misma clave push, que es idempotente,
+     * y se confirma en el diario cuando Firebase la acepta.
+     */
+    private void reconcileJournal() {
+        MessageJournal journal = MessageJournal.getInstance(this);
+        journal.reconcilePending(r -> {
+            if (!myUid.equals(r.senderId)) return; // Pendiente de otra cuenta en este dispositivo
+            FirebaseDatabase.getInstance().getReference()
+                    .updateChildren(ChatBuckets.writePaths(r.chatId, ChatBuckets.bucketFor(r.timestamp),
+                            r.id, SnapshotMapper.fromMessage(r.toMessage())))
+                    .addOnSuccessListener(unused -> journal.ack(r.id));
+        });
     }
 
     private void loadUsers() {
-        // Listener que se mantiene activo para detectar nuevos usuarios automáticamente
-        mDatabase.addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                userList.clear();
-                for (DataSnapshot data : snapshot.getChildren()) {
-                    User user = data.getValue(User.class);
-                    // Filtrar: No mostrarme a mí mismo en la lista de contactos
-                    if (user != null && user.uid != null && !user.uid.equals(myUid)) {
-                        userList.add(user);
+        // Primero el directorio local (leído fuera del hilo principal) y luego un listener
+        // que se mantiene activo: solo trae usuarios nuevos o modificados
+        userDirectory.startSync(this::applyUsers);
+    }
+
+    private void applyUsers(List<User> changed) {
+        adapter.applyUsers(changed, myUid);
+    }
+
+    private void refreshPresence(String rowUid) {
+        adapter.notifyPresenceChanged(rowUid);
+    }
+
+    /**
+     * Los grupos se muestran en la misma lista que los contactos, como una fila cuyo
+     * uid es "group:{groupId}" (misma convención que "GLOBAL_CHAT_ID" para el canal público).
+     */
+    private void loadGroups() {
+        GroupDirectory groups = GroupDirectory.getInstance();
+        for (Map.Entry<String, String> g : groups.groups().entrySet()) onGroupAdded(g.getKey(), g.getValue());
+        groups.addListener(groupListener);
+    }
+
+    private void onGroupAdded(String groupId, String name) {
+        User row = new User(GroupDirectory.chatIdFor(groupId), "Grupo", name, "");
+        List<User> changed = new ArrayList<>(1);
+        changed.add(row);
+        applyUsers(changed);
+    }
+
+    // Diálogo de creación: nombre + selección de contactos.
+    private void showNewGroupDialog() {
+        List<User> contacts = new ArrayList<>();
+        for (User u : userList) {
+            if (!GroupDirectory.isGroupChat(u.uid)) contacts.add(u);
+        }
+        String[] labels = new String[contacts.size()];
+        for (int i = 0; i < labels.length; i++) labels[i] = contacts.get(i).name;
+        boolean[] checked = new boolean[labels.length];
+
+        EditText etName = new EditText(this);
+        etName.setHint("Nombre del grupo");
+
+        new AlertDialog.Builder(this)
+                .setTitle("Nuevo Grupo")
+                .setView(etName)
+                .setMultiChoiceItems(labels, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton("Crear", (dialog, which) -> {
+                    String name = etName.getText().toString().trim();
+                    List<String> members = new ArrayList<>();
+                    for (int i = 0; i < checked.length; i++) {
+                        if (checked[i]) members.add(contacts.get(i).uid);
                     }
-                }
-                adapter.notifyDataSetChanged(); // Refrescar UI
-            }
+                    if (name.isEmpty() || members.isEmpty()) {
+                        Toast.makeText(this, "Ingresa un nombre y al menos un contacto", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    GroupDirectory.getInstance().createGroup(name, members);
+                })
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
 
-            @Override
-            public void onCancelled(@NonNull DatabaseError error) { }
-        });
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (userDirectory != null) userDirectory.stopSync();
+        GroupDirectory.getInstance().removeListener(groupListener);
+        if (presence != null) presence.removeListener(presenceListener);
+        // Quitar el adaptador despega las filas visibles: cada una deja de observar su presencia.
+        if (recyclerView != null) recyclerView.setAdapter(null);
     }
 
     // Menú de Opciones (Top Bar)
@@ -102,7 +210,12 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         int id = item.getItemId();
-        if (id == R.id.action_logout) {
+        if (id == R.id.action_new_group) {
+            showNewGroupDialog();
+            return true;
+        } else if (id == R.id.action_logout) {
+            GroupDirectory.getInstance().stop();
+            MqttHub.getInstance(this).stop();
             FirebaseAuth.getInstance().signOut();
             goToLogin();
             return true;
@@ -1,5 +1,7 @@
 package com.example.conectamobile;
 
+import com.google.firebase.database.Exclude;
+
 /**
  * Modelo de Datos: Mensaje.
  * Estructura para el intercambio de información entre clientes.
@@ -10,6 +12,18 @@ public class Message {
     public String text;
     public long timestamp; // Marca de tiempo para ordenamiento
 
+    // Clave push de Firebase. No se serializa: ya es el nombre del nodo.
+    // Los mensajes recibidos solo por MQTT no tienen clave (null).
+    @Exclude
+    public String id;
+
+    // Estado local de envío (eco optimista). Los mensajes leídos de Firebase ya están confirmados.
+    public static final int STATE_CONFIRMED = 0;
+    public static final int STATE_PENDING = 1;
+    public static final int STATE_FAILED = 2;
+    @Exclude
+    public int state = STATE_CONFIRMED;
+
     // Constructor vacío OBLIGATORIO para Firebase
     public Message() { }
 
@@ -0,0 +1,370 @@
+package com.example.conectamobile;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Diario local (Journal) de mensajes, de solo escritura al final (append-only).
+ *
+ * Objetivo: No depender únicamente de la cola offline interna de Firebase, que no
+ * podemos inspeccionar, acotar ni reenviar por MQTT.
+ *
+ * Formato: Segmentos "journal-NNNNNNNN.log" con registros
+ * [longitud int][crc32 int][tipo byte][datos...].
+ * - Escrituras: Se codifican en un hilo dedicado y se acumulan en un buffer,
+ *   por lo que el hilo de UI solo paga el encolado (microsegundos).
+ * - Recuperación: Al iniciar se recorren los segmentos y se trunca la cola
+ *   en el primer registro corrupto (escritura interrumpida por un crash).
+ * - Compactación: Al superar MAX_SEGMENTS se reescriben solo los mensajes
+ *   pendientes en el segmento activo y se borran los segmentos antiguos.
+ *   Los pendientes se acotan a MAX_PENDING (se olvidan los más antiguos) para que lo
+ *   que sobrevive a una compactación no crezca sin límite.
+ */
+public class MessageJournal {
+
+    private static final String TAG = "Journal";
+
+    public static final byte TYPE_PENDING = 1;   // Mensaje enviado, sin confirmar por Firebase
+    public static final byte TYPE_RECEIVED = 2;  // Mensaje recibido por MQTT
+    public static final byte TYPE_ACK = 3;       // Firebase confirmó la escritura del mensaje
+    public static final byte TYPE_PUBLISHED = 4; // El mensaje pendiente ya se publicó por MQTT
+
+    private static final long SEGMENT_MAX_BYTES = 256 * 1024;
+    private static final int MAX_SEGMENTS = 4;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+    // Firebase conserva su propia cola offline: el diario no necesita recordar más que esto.
+    private static final int MAX_PENDING = 500;
+
+    private static MessageJournal instance;
+
+    private final File dir;
+    // Hilo único de escritura: serializa el acceso al canal sin bloquear la UI.
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "message-journal");
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_RECORD_BYTES);
+    private final CRC32 crc = new CRC32();
+
+    // Estado reconstruido en la recuperación (solo se toca desde el hilo de escritura).
+    private final LinkedHashMap<String, Record> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long activeSeq;
+    private long activeSize;
+    private boolean reconciled;
+
+    /**
+     * Registro individual del diario.
+     * Los mensajes recibidos no tienen clave de Firebase, por lo que su id es vacío.
+     */
+    public static class Record {
+        public final byte type;
+        public final String id;
+        public final String chatId;
+        public final String senderId;
+        public final String text;
+        public final long timestamp;
+        boolean published;
+
+        Record(byte type, String id, String chatId, String senderId, String text, long timestamp) {
+            this.type = type;
+            this.id = id;
+            this.chatId = chatId;
+            this.senderId = senderId;
+            this.text = text;
+            this.timestamp = timestamp;
+        }
+
+        public Message toMessage() {
+            return new Message(senderId, text, timestamp);
+        }
+    }
+
+    public static synchronized MessageJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageJournal(new File(context.getApplicationContext().getFilesDir(), "journal"));
+        }
+        return instance;
+    }
+
+    MessageJournal(File dir) {
+        this.dir = dir;
+        // La recuperación es la primera tarea del hilo: todo lo encolado después la ve completa.
+        writer.execute(this::recover);
+    }
+
+    // --- API pública (segura desde el hilo de UI) ---
+
+    /**
+     * Registra un mensaje compuesto en sendMessage(), identificado por su clave push de Firebase.
+     * Queda sin publicar hasta que markPublished() confirme que salió por MQTT.
+     */
+    public void appendPending(String id, String chatId, Message msg) {
+        Record r = new Record(TYPE_PENDING, id, chatId, msg.senderId, msg.text, msg.timestamp);
+        writer.execute(() -> append(r));
+    }
+
+    /** Registra un mensaje recibido en messageArrived. */
+    public void appendReceived(String chatId, Message msg) {
+        Record r = new Record(TYPE_RECEIVED, "", chatId, msg.senderId, msg.text, msg.timestamp);
+        writer.execute(() -> append(r));
+    }
+
+    /** Marca un mensaje pendiente como persistido en Firebase. */
+    public void ack(String id) {
+        writer.execute(() -> append(new Record(TYPE_ACK, id, "", "", "", 0)));
+    }
+
+    /** El mensaje pendiente ya salió por MQTT: no se repite en la próxima conexión. */
+    public void markPublished(String id) {
+        writer.execute(() -> append(new Record(TYPE_PUBLISHED, id, "", "", "", 0)));
+    }
+
+    /**
+     * Entrega (en el hilo del diario) los pendientes que nunca se publicaron por MQTT.
+     * No los marca: quien los recibe llama a markPublished() solo si de verdad los publicó.
+     */
+    public void replayUnpublished(Consumer<Record> publisher) {
+        writer.execute(() -> {
+            List<Record> toReplay = new ArrayList<>();
+            for (Record r : pending.values()) {
+                if (!r.published) toReplay.add(r);
+            }
+            for (Record r : toReplay) publisher.accept(r);
+        });
+    }
+
+    /**
+     * Entrega (en el hilo del diario) los pendientes sin confirmar, una sola vez por proceso.
+     * El ack depende del listener de updateChildren: si el proceso murió antes de recibirlo,
+     * el pendiente quedaría en el diario para siempre sin esta pasada de reconciliación.
+     */
+    public void reconcilePending(Consumer<Record> reissuer) {
+        writer.execute(() -> {
+            if (reconciled) return;
+            reconciled = true;
+            for (Record r : new ArrayList<>(pending.values())) reissuer.accept(r);
+        });
+    }
+
+    /** Cierra el diario cuando termina lo ya encolado (en pruebas, simula el fin del proceso). */
+    void close() throws InterruptedException {
+        writer.execute(() -> {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error cerrando el diario", e);
+            }
+            channel = null;
+        });
+        writer.shutdown();
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    // --- Hilo de escritura ---
+
+    private void append(Record r) {
+        try {
+            if (channel == null) return; // Diario deshabilitado tras un error de E/S
+            write(r);
+            apply(r);
+            if (activeSize >= SEGMENT_MAX_BYTES) rollSegment();
+        } catch (java.nio.BufferOverflowException e) {
+            Log.w(TAG, "Registro demasiado grande, se omite del diario");
+        } catch (IOException e) {
+            Log.e(TAG, "Error escribiendo el diario", e);
+        }
+    }
+
+    /** Codifica y escribe un registro en el segmento activo, sin rotar ni compactar. */
+    private void write(Record r) throws IOException {
+        buffer.clear();
+        buffer.position(HEADER_BYTES);
+        buffer.put(r.type);
+        putString(r.id);
+        putString(r.chatId);
+        putString(r.senderId);
+        putString(r.text);
+        buffer.putLong(r.timestamp);
+        buffer.put((byte) (r.published ? 1 : 0));
+
+        int payloadLength = buffer.position() - HEADER_BYTES;
+        crc.reset();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_BYTES).limit(HEADER_BYTES + payloadLength);
+        crc.update(payload);
+        buffer.putInt(0, payloadLength);
+        buffer.putInt(4, (int) crc.getValue());
+
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        activeSize += HEADER_BYTES + payloadLength;
+    }
+
+    private void putString(String s) {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /** Aplica un registro al estado en memoria (pendientes por confirmar). */
+    private void apply(Record r) {
+        switch (r.type) {
+            case TYPE_PENDING:
+                pending.put(r.id, r);
+                if (pending.size() > MAX_PENDING) {
+                    String oldest = pending.keySet().iterator().next();
+                    pending.remove(oldest);
+                    Metrics.increment("journal.pending_dropped");
+                }
+                break;
+            case TYPE_ACK:
+                pending.remove(r.id);
+                break;
+            case TYPE_PUBLISHED:
+                Record p = pending.get(r.id);
+                if (p != null) p.published = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void recover() {
+        try {
+            if (!dir.exists() && !dir.mkdirs()) throw new IOException("No se pudo crear " + dir);
+            File[] segments = listSegments();
+            for (File segment : segments) {
+                replaySegment(segment);
+            }
+            activeSeq = segments.length == 0 ? 0 : parseSeq(segments[segments.length - 1]);
+            openActive();
+            Log.d(TAG, "Recuperación completa: " + pending.size() + " mensajes pendientes");
+            if (segments.length > MAX_SEGMENTS) compact();
+        } catch (IOException e) {
+            Log.e(TAG, "Diario deshabilitado: error en recuperación", e);
+        }
+    }
+
+    private void replaySegment(File segment) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+             FileChannel in = raf.getChannel()) {
+            ByteBuffer data = ByteBuffer.allocate((int) in.size());
+            while (data.hasRemaining() && in.read(data) >= 0) { }
+            data.flip();
+
+            long validEnd = 0;
+            while (data.remaining() >= HEADER_BYTES) {
+                int start = data.position();
+                int length = data.getInt();
+                int storedCrc = data.getInt();
+                if (length <= 0 || length > data.remaining()) break;
+
+                ByteBuffer payload = data.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != storedCrc) break;
+
+                apply(decode(payload));
+                data.position(start + HEADER_BYTES + length);
+                validEnd = data.position();
+            }
+            // Registro incompleto o corrupto al final: se descarta la cola del segmento.
+            if (validEnd < in.size()) {
+                Log.w(TAG, "Truncando " + segment.getName() + " en " + validEnd);
+                in.truncate(validEnd);
+            }
+        }
+    }
+
+    private Record decode(ByteBuffer in) {
+        byte type = in.get();
+        String id = getString(in);
+        String chatId = getString(in);
+        String senderId = getString(in);
+        String text = getString(in);
+        long timestamp = in.getLong();
+        Record r = new Record(type, id, chatId, senderId, text, timestamp);
+        r.published = in.get() == 1;
+        return r;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void rollSegment() throws IOException {
+        channel.close();
+        activeSeq++;
+        openActive();
+        if (listSegments().length > MAX_SEGMENTS) compact();
+    }
+
+    /**
+     * Compactación: Reescribe los pendientes vivos en el segmento activo y elimina
+     * todos los segmentos anteriores (su información restante ya no es necesaria).
+     * Se usa write() y no append(): reescribir no debe disparar otra rotación ni otra
+     * compactación mientras los segmentos antiguos siguen en disco.
+     */
+    private void compact() throws IOException {
+        channel.close();
+        activeSeq++;
+        openActive();
+        List<Record> live = new ArrayList<>(pending.values());
+        for (Record r : live) {
+            try {
+                write(r);
+            } catch (java.nio.BufferOverflowException e) {
+                Log.w(TAG, "Registro demasiado grande, se omite del diario");
+            }
+        }
+        channel.force(false);
+
+        for (File segment : listSegments()) {
+            if (parseSeq(segment) < activeSeq && !segment.delete()) {
+                Log.w(TAG, "No se pudo borrar " + segment.getName());
+            }
+        }
+        Log.d(TAG, "Compactación: " + live.size() + " pendientes conservados");
+    }
+
+    private void openActive() throws IOException {
+        File file = new File(dir, String.format(java.util.Locale.US, "journal-%08d.log", activeSeq));
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        activeSize = channel.size();
+        channel.position(activeSize);
+    }
+
+    private File[] listSegments() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("journal-") && name.endsWith(".log"));
+        if (files == null) return new File[0];
+        Arrays.sort(files, (a, b) -> Long.compare(parseSeq(a), parseSeq(b)));
+        return files;
+    }
+
+    private static long parseSeq(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+}
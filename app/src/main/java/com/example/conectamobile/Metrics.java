@@ -0,0 +1,62 @@
+package com.example.conectamobile;
+
+import android.util.Log;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Métricas internas de la aplicación (contadores y latencias).
+ * Son acumuladores en memoria, baratos de actualizar desde cualquier hilo,
+ * que se vuelcan al Logcat para análisis de rendimiento.
+ */
+public final class Metrics {
+
+    private static final String TAG = "Metrics";
+    private static final ConcurrentHashMap<String, AtomicLong> values = new ConcurrentHashMap<>();
+
+    private Metrics() { }
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        AtomicLong counter = values.get(name);
+        if (counter == null) {
+            values.putIfAbsent(name, new AtomicLong());
+            counter = values.get(name);
+        }
+        counter.addAndGet(delta);
+    }
+
+    /** Registra una muestra de latencia: acumula cantidad, total y máximo. */
+    public static void record(String name, long millis) {
+        add(name + ".count", 1);
+        add(name + ".total_ms", millis);
+        add(name + ".max_ms", 0);
+        AtomicLong max = values.get(name + ".max_ms");
+        long current;
+        do {
+            current = max.get();
+            if (millis <= current) break;
+        } while (!max.compareAndSet(current, millis));
+    }
+
+    public static long get(String name) {
+        AtomicLong counter = values.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /** Copia ordenada de todas las métricas. */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> copy = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> e : values.entrySet()) copy.put(e.getKey(), e.getValue().get());
+        return copy;
+    }
+
+    public static void dump() {
+        Log.i(TAG, snapshot().toString());
+    }
+}
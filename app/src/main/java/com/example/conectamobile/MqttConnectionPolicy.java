@@ -0,0 +1,208 @@
+package com.example.conectamobile;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Política de conexión MQTT adaptativa.
+ *
+ * Ajusta keep-alive, QoS y ventana de agrupación de publicaciones según:
+ * - Tipo de red (Wi-Fi / Celular / Sin red).
+ * - Estado de la app (primer plano / segundo plano) y modo Doze.
+ *
+ * En primer plano se prioriza detectar rápido un enlace caído; en segundo plano
+ * se alarga el keep-alive y se agrupan publicaciones para despertar menos la radio.
+ * Las estimaciones de despertares y de latencia de detección se reportan en Metrics.
+ */
+public class MqttConnectionPolicy {
+
+    public enum NetworkType { NONE, WIFI, CELLULAR }
+
+    public interface Listener {
+        /** El perfil cambió (red, primer plano o Doze). Se invoca en el hilo principal. */
+        void onPolicyChanged();
+    }
+
+    private static MqttConnectionPolicy instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final PowerManager powerManager;
+
+    private volatile NetworkType networkType = NetworkType.NONE;
+    private int startedActivities;
+
+    // Seguimiento de la conexión para estimar despertares y latencia de detección.
+    private long connectedAt;
+    private int connectedKeepAlive;
+    private volatile long lastTrafficAt;
+
+    public static synchronized MqttConnectionPolicy getInstance(Context context) {
+        if (instance == null) instance = new MqttConnectionPolicy((Application) context.getApplicationContext());
+        return instance;
+    }
+
+    private MqttConnectionPolicy(Application app) {
+        powerManager = (PowerManager) app.getSystemService(Context.POWER_SERVICE);
+
+        // 1. Tipo de red: callback de la red por defecto del sistema.
+        ConnectivityManager cm = (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkCapabilities current = cm.getNetworkCapabilities(cm.getActiveNetwork());
+        if (current != null) networkType = typeOf(current);
+        cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities caps) {
+                setNetworkType(typeOf(caps));
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                setNetworkType(NetworkType.NONE);
+            }
+        });
+
+        // 2. Modo Doze: el sistema avisa al entrar y salir.
+        app.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) { notifyChanged(); }
+        }, new IntentFilter(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED));
+
+        // 3. Primer plano: contamos Activities iniciadas.
+        app.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override public void onActivityStarted(@NonNull Activity activity) {
+                if (startedActivities++ == 0) notifyChanged();
+            }
+            @Override public void onActivityStopped(@NonNull Activity activity) {
+                if (--startedActivities == 0) notifyChanged();
+            }
+            @Override public void onActivityCreated(@NonNull Activity activity, Bundle savedInstanceState) { }
+            @Override public void onActivityResumed(@NonNull Activity activity) { }
+            @Override public void onActivityPaused(@NonNull Activity activity) { }
+            @Override public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) { }
+            @Override public void onActivityDestroyed(@NonNull Activity activity) { }
+        });
+    }
+
+    public void addListener(Listener listener) { listeners.add(listener); }
+
+    public void removeListener(Listener listener) { listeners.remove(listener); }
+
+    public NetworkType getNetworkType() { return networkType; }
+
+    public boolean isForeground() { return startedActivities > 0; }
+
+    public boolean isDozing() { return powerManager.isDeviceIdleMode(); }
+
+    // --- Perfil de conexión ---
+
+    /**
+     * Keep-alive en segundos.
+     * Celular en segundo plano se mantiene bajo ~5 min, el timeout NAT típico de los operadores.
+     */
+    public int keepAliveSeconds() {
+        if (isDozing()) return 900;
+        boolean wifi = networkType == NetworkType.WIFI;
+        if (isForeground()) return wifi ? 30 : 60;
+        return wifi ? 240 : 280;
+    }
+
+    /**
+     * QoS de publicación: 0 en Wi-Fi en primer plano (máxima velocidad),
+     * 1 en redes inestables o en segundo plano para que el broker confirme la entrega.
+     */
+    public int qos() {
+        return networkType == NetworkType.WIFI && isForeground() ? 0 : 1;
+    }
+
+    /** Ventana de agrupación de publicaciones: en segundo plano varias publicaciones comparten un despertar. */
+    public long batchWindowMs() {
+        if (isForeground()) return 0;
+        return networkType == NetworkType.WIFI ? 1000 : 3000;
+    }
+
+    public MqttConnectOptions buildOptions() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setKeepAliveInterval(keepAliveSeconds());
+        options.setConnectionTimeout(networkType == NetworkType.CELLULAR ? 20 : 10);
+        options.setAutomaticReconnect(true);
+        options.setCleanSession(true);
+        return options;
+    }
+
+    // --- Métricas de conexión ---
+
+    public void reportConnected(int keepAliveSeconds) {
+        connectedAt = SystemClock.elapsedRealtime();
+        connectedKeepAlive = keepAliveSeconds;
+        lastTrafficAt = connectedAt;
+        Metrics.increment("mqtt.connects");
+        Metrics.increment("mqtt.radio_wakeups");
+    }
+
+    /** Tráfico entrante o publicación confirmada: prueba de que el enlace estaba vivo. */
+    public void reportTraffic() {
+        lastTrafficAt = SystemClock.elapsedRealtime();
+    }
+
+    /** Cada envío de lote despierta la radio una vez. */
+    public void reportPublishFlush(int messages) {
+        Metrics.increment("mqtt.radio_wakeups");
+        Metrics.add("mqtt.published", messages);
+    }
+
+    /**
+     * El cliente detectó la caída del enlace. El tiempo desde el último tráfico es la
+     * cota superior de cuánto tardamos en enterarnos (latencia de detección).
+     */
+    public void reportConnectionLost() {
+        long now = SystemClock.elapsedRealtime();
+        Metrics.record("mqtt.dead_link_detection", now - lastTrafficAt);
+        reportDisconnected();
+    }
+
+    /**
+     * Fin de una sesión: estimamos los PINGREQ enviados (uno por intervalo de keep-alive),
+     * ya que Paho no expone cada ping individualmente.
+     */
+    public void reportDisconnected() {
+        if (connectedAt == 0 || connectedKeepAlive <= 0) return;
+        long seconds = (SystemClock.elapsedRealtime() - connectedAt) / 1000;
+        Metrics.add("mqtt.radio_wakeups", seconds / connectedKeepAlive);
+        Metrics.add("mqtt.keepalive_pings", seconds / connectedKeepAlive);
+        connectedAt = 0;
+    }
+
+    private static NetworkType typeOf(NetworkCapabilities caps) {
+        return caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)
+                || caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)
+                ? NetworkType.WIFI : NetworkType.CELLULAR;
+    }
+
+    private void setNetworkType(NetworkType type) {
+        if (networkType == type) return;
+        networkType = type;
+        notifyChanged();
+    }
+
+    private void notifyChanged() {
+        mainHandler.post(() -> {
+            for (Listener listener : new ArrayList<>(listeners)) listener.onPolicyChanged();
+        });
+    }
+}
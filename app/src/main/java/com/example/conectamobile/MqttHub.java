@@ -0,0 +1,561 @@
+package com.example.conectamobile;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import info.mqtt.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión MQTT única de la aplicación (nivel de proceso).
+ *
+ * ESQUEMA DE TÓPICOS:
+ * - conectamobile/inbox/{uid}/{chatId}: Buzón personal. Cada usuario se suscribe UNA vez a
+ *   conectamobile/inbox/{uid}/# y el emisor publica en el buzón del destinatario.
+ * - conectamobile/group/{groupId}/{senderId}: Grupo. Un mensaje es UNA publicación; el broker
+ *   la reparte a los miembros suscritos a conectamobile/group/{groupId}/# (el emisor no recorre
+ *   la lista de miembros). El subtópico identifica al autor dentro del grupo, y solo se
+ *   aceptan autores presentes en la caché de miembros (GroupDirectory.isMember()).
+ * - conectamobile/global/{senderId}: Canal público (interoperabilidad con clientes externos como
+ *   MyMQTT). Se escucha conectamobile/global/#, que incluye también conectamobile/global a secas;
+ *   el subtópico identifica al emisor para el limitador de tasa (ver IngressFilter).
+ *   Compatibilidad: un cliente externo suscrito solo a conectamobile/global no ve lo que publica
+ *   la app; debe suscribirse a conectamobile/global/# (ver README).
+ * - conectamobile/presence/{uid}: Presencia retenida ("1"/"0"), con Last Will "0". Se suscribe
+ *   un tópico por contacto mostrado en pantalla (ver PresenceManager.watch()).
+ * - {tópico del chat}/typing: Indicador de escritura (ver PresenceManager). Llega por las
+ *   mismas suscripciones con comodín del buzón y de los grupos.
+ *
+ * CANAL PÚBLICO:
+ * Cualquiera puede publicar en él. Sus mensajes pasan por un IngressFilter en el hilo de MQTT
+ * y el hilo principal los drena por lotes (GLOBAL_DRAIN_BATCH por vuelta), de modo que un
+ * flood de miles de mensajes por segundo no satura la UI, la memoria ni el diario.
+ * El buzón, los grupos y la presencia son igual de escribibles por cualquier cliente del broker:
+ * pasan por su propio IngressFilter (un emisor por tópico, más un tope total por conexión)
+ * y se drenan igual, TOPIC_DRAIN_BATCH por vuelta.
+ *
+ * DEMULTIPLEXOR:
+ * El chatId viaja como último segmento del tópico, así que enrutar un mensaje entrante
+ * a su conversación es un substring y una búsqueda en HashMap: O(1) por mensaje.
+ */
+public class MqttHub {
+
+    public static final String GLOBAL_CHAT_ID = "global_chat";
+    private static final String GLOBAL_TOPIC = "conectamobile/global";
+    private static final String GLOBAL_WILDCARD = GLOBAL_TOPIC + "/#";
+    static final String ANONYMOUS_SENDER = "externo";
+    private static final int GLOBAL_DRAIN_BATCH = 20;
+    private static final int TOPIC_DRAIN_BATCH = 50;
+    private static final String INBOX_ROOT = "conectamobile/inbox/";
+    private static final String GROUP_ROOT = "conectamobile/group/";
+    private static final String PRESENCE_ROOT = "conectamobile/presence/";
+    private static final String TYPING_SUFFIX = "/typing";
+    private static final String BROKER = "tcp://broker.hivemq.com:1883";
+    // Reintento del connect() inicial (la reconexión automática de Paho solo cubre conexiones
+    // que alguna vez se establecieron): 2 s, 4 s, 8 s... hasta 5 minutos.
+    private static final long RETRY_MIN_MS = 2_000;
+    private static final long RETRY_MAX_MS = 5 * 60_000;
+    // Un keep-alive más largo se renegocia tras este tiempo estable en la nueva política.
+    private static final long RENEGOTIATE_AFTER_MS = 2 * 60_000;
+
+    /** Receptor de mensajes de una conversación. Se invoca en el hilo principal. */
+    public interface MessageListener {
+        void onMessage(String chatId, Message msg);
+    }
+
+    private static MqttHub instance;
+
+    private final Context appContext;
+    private final MqttConnectionPolicy policy;
+    private final MessageJournal journal;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, MessageListener> routes = new HashMap<>();
+    private final Set<String> groupIds = new HashSet<>();
+    private final MqttConnectionPolicy.Listener policyListener = this::onPolicyChanged;
+    private final PresenceManager presence = new PresenceManager(this);
+    private final IngressFilter globalIngress = IngressFilter.forPublicChannel(SystemClock.uptimeMillis());
+    private final AtomicBoolean globalDrainScheduled = new AtomicBoolean();
+    private final Runnable globalDrain = this::drainGlobal;
+    // Buzón, grupos y presencia: el "emisor" del filtro es el tópico completo.
+    private final IngressFilter topicIngress = IngressFilter.forPrivateTopics(SystemClock.uptimeMillis());
+    private final AtomicBoolean topicDrainScheduled = new AtomicBoolean();
+    private final Runnable topicDrain = this::drainTopics;
+    private final Runnable retryConnect = this::connect;
+    // Pendientes del diario ya entregados al agrupador: una reconexión no los vuelve a encolar.
+    private final Set<String> publishingIds = new HashSet<>();
+
+    private MqttAndroidClient client;
+    private MqttPublishBatcher batcher;
+    private String myUid;
+    private String inboxPrefix;
+    private int connectedKeepAlive;
+    private final Runnable renegotiate = this::renegotiateKeepAlive;
+    private boolean renegotiatePending;
+    private boolean connecting;
+    private long retryDelayMs = RETRY_MIN_MS;
+
+    public static synchronized MqttHub getInstance(Context context) {
+        if (instance == null) instance = new MqttHub(context.getApplicationContext());
+        return instance;
+    }
+
+    private MqttHub(Context appContext) {
+        this.appContext = appContext;
+        this.policy = MqttConnectionPolicy.getInstance(appContext);
+        this.journal = MessageJournal.getInstance(appContext);
+    }
+
+    /** Inicia la conexión para el usuario (idempotente). */
+    public void start(String uid) {
+        if (client != null && uid.equals(myUid)) return;
+        if (client != null) stop();
+
+        myUid = uid;
+        inboxPrefix = INBOX_ROOT + uid + "/";
+        presence.start(uid);
+
+        // Generamos un ClientID único para evitar que el broker nos desconecte si abrimos la app en 2 dispositivos.
+        // Constructor v4.3: Ya no requiere Ack.AUTO_ACK gracias a la implementación interna de WorkManager.
+        client = new MqttAndroidClient(appContext, BROKER, java.util.UUID.randomUUID().toString());
+        MqttAndroidClient session = client;
+        client.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                // Con cleanSession las suscripciones no sobreviven a una reconexión automática.
+                // Llega en el hilo de Paho: routes, groupIds y PresenceManager viven en el principal.
+                if (reconnect) {
+                    mainHandler.post(() -> {
+                        if (session != client) return; // Sesión cerrada mientras tanto
+                        mainHandler.removeCallbacks(retryConnect);
+                        onConnected();
+                    });
+                }
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                Log.w("MQTT", "Conexión perdida", cause);
+                policy.reportConnectionLost();
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                policy.reportTraffic();
+                String payload = new String(message.getPayload(), StandardCharsets.UTF_8);
+                if (isGlobalTopic(topic)) {
+                    admitGlobal(topic, payload);
+                } else {
+                    admitTopic(topic, payload);
+                }
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                policy.reportTraffic();
+            }
+        });
+        batcher = new MqttPublishBatcher(client, policy);
+        policy.addListener(policyListener);
+        connect();
+    }
+
+    /** Cierra la conexión (ej. al cerrar sesión). */
+    public void stop() {
+        if (client == null) return;
+        policy.removeListener(policyListener);
+        mainHandler.removeCallbacks(retryConnect);
+        mainHandler.removeCallbacks(renegotiate);
+        renegotiatePending = false;
+        connecting = false;
+        retryDelayMs = RETRY_MIN_MS;
+        batcher.flush();
+        policy.reportDisconnected();
+        try {
+            if (client.isConnected()) {
+                // Desconexión limpia: el broker no publica el Last Will, lo hacemos nosotros.
+                publishSignal(presenceTopic(myUid), "0", true);
+                client.disconnect();
+            }
+        } catch (Exception e) {
+            Log.e("MQTT", "Error al desconectar", e);
+        }
+        client = null;
+        myUid = null;
+        groupIds.clear();
+        publishingIds.clear();
+        presence.stop();
+        Metrics.dump();
+    }
+
+    public boolean isConnected() {
+        return client != null && client.isConnected();
+    }
+
+    public PresenceManager presence() {
+        return presence;
+    }
+
+    /**
+     * Registra la conversación visible. El canal global solo se suscribe mientras
+     * alguien lo está mirando; los chats privados ya llegan por el buzón.
+     */
+    public void register(String chatId, MessageListener listener) {
+        routes.put(chatId, listener);
+        if (GLOBAL_CHAT_ID.equals(chatId)) subscribe(GLOBAL_WILDCARD);
+    }
+
+    public void unregister(String chatId, MessageListener listener) {
+        if (routes.get(chatId) != listener) return;
+        routes.remove(chatId);
+        if (GLOBAL_CHAT_ID.equals(chatId) && isConnected()) {
+            try { client.unsubscribe(GLOBAL_WILDCARD); } catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * Grupos del usuario: uno nuevo se suscribe al momento, uno eliminado se da de baja.
+     */
+    public void setGroups(Collection<String> ids) {
+        Set<String> removed = new HashSet<>(groupIds);
+        removed.removeAll(ids);
+        for (String id : ids) {
+            if (groupIds.add(id)) subscribe(GROUP_ROOT + id + "/#");
+        }
+        for (String id : removed) {
+            groupIds.remove(id);
+            if (isConnected()) {
+                try { client.unsubscribe(GROUP_ROOT + id + "/#"); } catch (Exception e) { e.printStackTrace(); }
+            }
+        }
+    }
+
+    /**
+     * Publica un mensaje pendiente del diario. Solo se marca como publicado cuando el cliente
+     * lo entrega al broker; si falla, el próximo onConnected() lo vuelve a intentar.
+     */
+    public void publishPending(String chatId, String id, String text) {
+        if (batcher == null || !publishingIds.add(id)) return;
+        MqttPublishBatcher current = batcher;
+        current.publish(topicForChat(chatId), text, delivered -> mainHandler.post(() -> {
+            if (batcher != current) return; // Sesión cerrada: stop() ya olvidó este envío
+            publishingIds.remove(id);
+            if (delivered) journal.markPublished(id);
+        }));
+    }
+
+    /**
+     * Tópico de destino de un chat. Los UIDs de Firebase no contienen '_', por lo que
+     * el chatId privado "uidA_uidB" se separa sin ambigüedad.
+     */
+    String topicForChat(String chatId) {
+        if (GLOBAL_CHAT_ID.equals(chatId)) return GLOBAL_TOPIC + "/" + myUid;
+        if (GroupDirectory.isGroupChat(chatId)) return GROUP_ROOT + GroupDirectory.groupIdOf(chatId) + "/" + myUid;
+        int sep = chatId.indexOf('_');
+        String a = chatId.substring(0, sep);
+        String b = chatId.substring(sep + 1);
+        return INBOX_ROOT + (a.equals(myUid) ? b : a) + "/" + chatId;
+    }
+
+    /** Tópico de escritura de un chat; el canal público no tiene indicador (null). */
+    String typingTopic(String chatId) {
+        if (GLOBAL_CHAT_ID.equals(chatId)) return null;
+        return topicForChat(chatId) + TYPING_SUFFIX;
+    }
+
+    String presenceTopic(String uid) {
+        return PRESENCE_ROOT + uid;
+    }
+
+    /** Presencia de contactos concretos, en un solo SUBSCRIBE; el broker entrega los valores retenidos. */
+    void subscribePresence(Collection<String> uids) {
+        if (!isConnected() || uids.isEmpty()) return;
+        String[] topics = new String[uids.size()];
+        int[] qos = new int[topics.length];
+        int i = 0;
+        for (String uid : uids) {
+            topics[i] = presenceTopic(uid);
+            qos[i++] = policy.qos();
+        }
+        try {
+            client.subscribe(topics, qos);
+        } catch (Exception e) {
+            Log.e("MQTT", "Error suscribiendo a presencia", e);
+        }
+    }
+
+    void unsubscribePresence(Collection<String> uids) {
+        if (!isConnected() || uids.isEmpty()) return;
+        String[] topics = new String[uids.size()];
+        int i = 0;
+        for (String uid : uids) topics[i++] = presenceTopic(uid);
+        try {
+            client.unsubscribe(topics);
+        } catch (Exception e) {
+            Log.e("MQTT", "Error dando de baja presencia", e);
+        }
+    }
+
+    /**
+     * Señal efímera de PresenceManager: fuera del agrupador (no debe esperar una ventana)
+     * y en QoS 0 salvo la presencia retenida, que debe llegar.
+     */
+    void publishSignal(String topic, String payload, boolean retained) {
+        if (!isConnected()) return;
+        try {
+            client.publish(topic, payload.getBytes(StandardCharsets.UTF_8), retained ? 1 : 0, retained);
+        } catch (Exception e) {
+            Log.e("MQTT", "Error publicando señal", e);
+        }
+    }
+
+    /** Demultiplexor: tópico -> chatId -> listener. */
+    private void route(String topic, String payload) {
+        if (topic.startsWith(PRESENCE_ROOT)) {
+            presence.onPresence(topic.substring(PRESENCE_ROOT.length()), payload);
+            return;
+        }
+        boolean typing = topic.endsWith(TYPING_SUFFIX);
+        if (typing) topic = topic.substring(0, topic.length() - TYPING_SUFFIX.length());
+
+        String chatId;
+        String senderId;
+        if (topic.startsWith(GROUP_ROOT)) {
+            // group/{groupId}/{senderId}; sin subtópico (versiones anteriores) el autor es anónimo
+            // y no pasa el filtro de miembros: esos mensajes solo llegan por Firebase.
+            String rest = topic.substring(GROUP_ROOT.length());
+            int sep = rest.indexOf('/');
+            String groupId = sep < 0 ? rest : rest.substring(0, sep);
+            chatId = GroupDirectory.chatIdFor(groupId);
+            senderId = sep < 0 ? ANONYMOUS_SENDER : rest.substring(sep + 1);
+            // Cualquier cliente del broker puede publicar en el tópico: solo pasan los miembros
+            // (consulta O(1) a la caché de GroupDirectory). Lo descartado igual llega por Firebase,
+            // que sí valida al autor.
+            if (!GroupDirectory.getInstance().isMember(groupId, senderId)) {
+                Metrics.increment("mqtt.group_rejected");
+                return;
+            }
+            // Eco propio: el mensaje ya está en pantalla (eco optimista) y en el diario.
+            if (!typing && senderId.equals(myUid)) return;
+        } else if (inboxPrefix != null && topic.startsWith(inboxPrefix)) {
+            chatId = topic.substring(inboxPrefix.length());
+            int sep = chatId.indexOf('_');
+            if (sep < 0) return; // Tópico mal formado (publicador externo)
+            String a = chatId.substring(0, sep);
+            senderId = a.equals(myUid) ? chatId.substring(sep + 1) : a;
+        } else {
+            return;
+        }
+        if (typing) {
+            presence.onTyping(chatId, payload);
+            return;
+        }
+
+        deliver(chatId, senderId, payload);
+    }
+
+    private void deliver(String chatId, String senderId, String payload) {
+        Message msg = new Message(senderId, payload, System.currentTimeMillis());
+        // Se registra aunque la conversación no esté abierta: el diario conserva lo recibido.
+        journal.appendReceived(chatId, msg);
+        MessageListener listener = routes.get(chatId);
+        if (listener != null) listener.onMessage(chatId, msg);
+    }
+
+    private static boolean isGlobalTopic(String topic) {
+        return topic.equals(GLOBAL_TOPIC) || topic.startsWith(GLOBAL_TOPIC + "/");
+    }
+
+    /**
+     * Hilo de MQTT: el filtro decide qué entra. Solo se agenda un drenado a la vez,
+     * así que un flood no llena la cola del Looper con un Runnable por mensaje.
+     */
+    private void admitGlobal(String topic, String payload) {
+        String sender = topic.length() > GLOBAL_TOPIC.length()
+                ? topic.substring(GLOBAL_TOPIC.length() + 1) : ANONYMOUS_SENDER;
+        IngressFilter.Verdict verdict = globalIngress.offer(sender, payload, SystemClock.uptimeMillis());
+        if (verdict == IngressFilter.Verdict.ACCEPTED && globalDrainScheduled.compareAndSet(false, true)) {
+            mainHandler.post(globalDrain);
+        }
+    }
+
+    /** Hilo principal: un lote acotado por vuelta; si queda más, se cede el turno a la UI. */
+    private void drainGlobal() {
+        globalDrainScheduled.set(false);
+        for (IngressFilter.Item item : globalIngress.poll(GLOBAL_DRAIN_BATCH)) {
+            String text = item.repeats() > 0 ? item.payload + " (x" + (item.repeats() + 1) + ")" : item.payload;
+            deliver(GLOBAL_CHAT_ID, item.sender, text);
+        }
+        if (globalIngress.size() > 0 && globalDrainScheduled.compareAndSet(false, true)) {
+            mainHandler.post(globalDrain);
+        }
+    }
+    /** Hilo de MQTT: buzón, grupos y presencia pasan el filtro antes de tocar el hilo principal. */
+    private void admitTopic(String topic, String payload) {
+        IngressFilter.Verdict verdict = topicIngress.offer(topic, payload, SystemClock.uptimeMillis());
+        if (verdict == IngressFilter.Verdict.ACCEPTED && topicDrainScheduled.compareAndSet(false, true)) {
+            mainHandler.post(topicDrain);
+        }
+    }
+
+    private void drainTopics() {
+        topicDrainScheduled.set(false);
+        for (IngressFilter.Item item : topicIngress.poll(TOPIC_DRAIN_BATCH)) {
+            // Copias idénticas colapsadas: cada una ya pasó el límite de su tópico.
+            for (int i = 0; i <= item.repeats(); i++) route(item.sender, item.payload);
+        }
+        if (topicIngress.size() > 0 && topicDrainScheduled.compareAndSet(false, true)) {
+            mainHandler.post(topicDrain);
+        }
+    }
+
+
+    /**
+     * Conecta con las opciones que dicta la política actual (keep-alive según red y estado).
+     * Si falla se reintenta con espera exponencial; sin red se espera a onPolicyChanged().
+     */
+    private void connect() {
+        if (client == null || connecting || client.isConnected()) return;
+        mainHandler.removeCallbacks(retryConnect);
+        MqttAndroidClient attempt = client;
+        connecting = true;
+        try {
+            MqttConnectOptions options = policy.buildOptions();
+            // Si la conexión muere sin desconexión limpia, el broker nos marca fuera de línea.
+            options.setWill(presenceTopic(myUid), "0".getBytes(StandardCharsets.UTF_8), 1, true);
+            attempt.connect(options).setActionCallback(new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    if (attempt != client) return; // Sesión cerrada mientras conectaba
+                    Log.d("MQTT", "Conexión Exitosa (TCP 1883), keep-alive " + options.getKeepAliveInterval() + "s");
+                    connecting = false;
+                    retryDelayMs = RETRY_MIN_MS;
+                    connectedKeepAlive = options.getKeepAliveInterval();
+                    policy.reportConnected(connectedKeepAlive);
+                    onConnected();
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    if (attempt != client) return;
+                    Log.e("MQTT", "Fallo en conexión (Modo Offline)", exception);
+                    connecting = false;
+                    scheduleRetry();
+                }
+            });
+        } catch (Exception e) {
+            Log.e("MQTT", "Error de conexión", e);
+            connecting = false;
+            scheduleRetry();
+        }
+    }
+
+    private void scheduleRetry() {
+        if (client == null || policy.getNetworkType() == MqttConnectionPolicy.NetworkType.NONE) return;
+        Log.d("MQTT", "Reintento de conexión en " + retryDelayMs + " ms");
+        Metrics.increment("mqtt.connect_retries");
+        mainHandler.postDelayed(retryConnect, retryDelayMs);
+        retryDelayMs = Math.min(retryDelayMs * 2, RETRY_MAX_MS);
+    }
+
+    /** Conexión lista (inicial o reconexión automática). Siempre en el hilo principal. */
+    private void onConnected() {
+        // Una sola suscripción cubre todas las conversaciones privadas.
+        subscribe(inboxPrefix + "#");
+        if (routes.containsKey(GLOBAL_CHAT_ID)) subscribe(GLOBAL_WILDCARD);
+        for (String id : groupIds) subscribe(GROUP_ROOT + id + "/#");
+        // Presencia: solo los contactos en pantalla; el broker entrega de inmediato los valores retenidos.
+        presence.onConnected(policy.isForeground());
+        // Lo que quedó en el agrupador mientras no había conexión.
+        batcher.flush();
+        // Reenviamos por MQTT lo que quedó en el diario sin publicar (ej. enviado offline).
+        // El diario los entrega en su hilo: cada envío vuelve al principal.
+        String uid = myUid;
+        journal.replayUnpublished(r -> {
+            if (GLOBAL_CHAT_ID.equals(r.chatId) || GroupDirectory.isGroupChat(r.chatId) || r.chatId.contains(uid)) {
+                mainHandler.post(() -> publishPending(r.chatId, r.id, r.text));
+            }
+        });
+    }
+
+    private void subscribe(String topic) {
+        if (!isConnected()) return; // Se suscribirá en onConnected()
+        try {
+            // QoS según la política: 0 (At most once) en Wi-Fi, 1 en redes inestables
+            client.subscribe(topic, policy.qos());
+        } catch (Exception e) {
+            Log.e("MQTT", "Error suscribiendo a " + topic, e);
+        }
+    }
+
+    /**
+     * Cambió la red o el estado de la app. El keep-alive solo se negocia al conectar, así que
+     * si el valor ideal se alarga y se mantiene RENEGOTIATE_AFTER_MS se reconecta; además
+     * liberamos el lote pendiente
+     * si ahora la política pide publicación inmediata. Si estábamos desconectados y
+     * volvió la red, se conecta de inmediato sin esperar al próximo reintento.
+     */
+    private void onPolicyChanged() {
+        if (policy.batchWindowMs() == 0) batcher.flush();
+        presence.setOnline(policy.isForeground());
+        if (!isConnected()) {
+            if (policy.getNetworkType() != MqttConnectionPolicy.NetworkType.NONE) {
+                retryDelayMs = RETRY_MIN_MS;
+                connect();
+            }
+            return;
+        }
+        // Histéresis: solo alargar el keep-alive ahorra despertares, y solo si la app se queda
+        // en segundo plano un rato; cambiar de app varias veces no debe costar una reconexión
+        // completa (CONNECT, suscripciones, presencia) por cada ida y vuelta. Acortarlo espera
+        // a la próxima reconexión natural, que ya usa la política vigente.
+        if (policy.keepAliveSeconds() <= connectedKeepAlive) {
+            mainHandler.removeCallbacks(renegotiate);
+            renegotiatePending = false;
+        } else if (!renegotiatePending) {
+            renegotiatePending = true;
+            mainHandler.postDelayed(renegotiate, RENEGOTIATE_AFTER_MS);
+        }
+    }
+
+    /** Reconecta con el keep-alive más largo, si la política lo sigue pidiendo. */
+    private void renegotiateKeepAlive() {
+        renegotiatePending = false;
+        if (!isConnected() || policy.keepAliveSeconds() <= connectedKeepAlive) return;
+        Metrics.increment("mqtt.keepalive_renegotiations");
+        MqttAndroidClient current = client;
+        try {
+            policy.reportDisconnected();
+            current.disconnect().setActionCallback(new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    if (current == client) connect();
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    Log.w("MQTT", "No se pudo reconectar con la nueva política", exception);
+                    // connect() no hace nada si la conexión anterior sigue viva; si no, reintenta.
+                    if (current == client) connect();
+                }
+            });
+        } catch (Exception e) {
+            Log.e("MQTT", "Error aplicando política", e);
+            connect();
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.example.conectamobile;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import info.mqtt.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Agrupador de publicaciones MQTT.
+ * Retiene las publicaciones durante la ventana que indica MqttConnectionPolicy y las
+ * envía juntas, de modo que un lote cueste un solo despertar de la radio.
+ * Con ventana 0 (primer plano) la publicación es inmediata.
+ * Sin conexión el lote se conserva hasta el próximo flush().
+ */
+public class MqttPublishBatcher {
+
+    /** Resultado de una publicación: true si el cliente la entregó al broker. */
+    public interface SentListener {
+        void onSent(boolean delivered);
+    }
+
+    private static class Item {
+        final String topic;
+        final String payload;
+        final SentListener listener;
+
+        Item(String topic, String payload, SentListener listener) {
+            this.topic = topic;
+            this.payload = payload;
+            this.listener = listener;
+        }
+    }
+
+    private final MqttAndroidClient client;
+    private final MqttConnectionPolicy policy;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Item> queue = new ArrayList<>();
+    private boolean flushScheduled;
+
+    public MqttPublishBatcher(MqttAndroidClient client, MqttConnectionPolicy policy) {
+        this.client = client;
+        this.policy = policy;
+    }
+
+    /** Encola una publicación; el listener (opcional) sabe cuándo sale realmente (o falla). */
+    public void publish(String topic, String payload, SentListener listener) {
+        queue.add(new Item(topic, payload, listener));
+        long window = policy.batchWindowMs();
+        if (window == 0) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(this::flush, window);
+        }
+    }
+
+    public void flush() {
+        handler.removeCallbacksAndMessages(null);
+        flushScheduled = false;
+        if (queue.isEmpty() || !client.isConnected()) return;
+
+        int qos = policy.qos();
+        int sent = 0;
+        for (Item item : queue) {
+            try {
+                MqttMessage message = new MqttMessage(item.payload.getBytes(StandardCharsets.UTF_8));
+                message.setQos(qos);
+                client.publish(item.topic, message, null, item.listener == null ? null : new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) { item.listener.onSent(true); }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) { item.listener.onSent(false); }
+                });
+                sent++;
+            } catch (Exception e) {
+                Log.e("MQTT", "Error publicando", e);
+                if (item.listener != null) item.listener.onSent(false);
+            }
+        }
+        queue.clear();
+        policy.reportPublishFlush(sent);
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.conectamobile;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Señales efímeras de presencia ("en línea") y escritura ("escribiendo...") sobre MQTT.
+ * Nada de esto se escribe en Firebase.
+ *
+ * PRESENCIA: conectamobile/presence/{uid} con payload "1"/"0" retenido. El broker entrega el
+ * último valor al suscribirse, y el Last Will publica "0" si la conexión muere sin avisar.
+ * Solo se suscribe la presencia de quien se está mostrando (filas visibles de la lista, chat
+ * abierto), vía watch()/unwatch(): nunca conectamobile/presence/+, que traería a todas las
+ * instalaciones del broker en cada reconexión. Las altas y bajas se agrupan en una sola
+ * pasada por ráfaga de scroll, y al dejar de mostrar un contacto se olvida su estado.
+ *
+ * ESCRITURA: {tópico del chat}/typing con payload "{uid}:1" / "{uid}:0", sin retener.
+ * - Mientras se escribe, "1" se reenvía como mucho cada TYPING_REFRESH_MS (no por tecla).
+ * - Tras TYPING_IDLE_MS sin teclear (o al enviar) se publica "0".
+ * - El receptor descarta un "1" que no se refresca en TYPING_TIMEOUT_MS (si el "0" se pierde).
+ *
+ * TOPE DE TASA: toda señal saliente pasa por una única TokenBucket por usuario, sin importar
+ * cuántos chats estén abiertos. Lo que excede el tope espera en una cola coalescida por tópico:
+ * una señal nueva reemplaza a la pendiente del mismo tópico, así que solo viaja el último estado.
+ *
+ * Todo ocurre en el hilo principal.
+ */
+public class PresenceManager {
+
+    static final long TYPING_REFRESH_MS = 3_000;
+    static final long TYPING_IDLE_MS = 4_000;
+    static final long TYPING_TIMEOUT_MS = 6_000;
+    // Una señal por segundo sostenida, ráfagas de hasta 3 (ej. presencia + escritura + fin de escritura).
+    private static final double SIGNAL_BURST = 3;
+    private static final double SIGNALS_PER_SECOND = 1;
+    // Un SUBSCRIBE/UNSUBSCRIBE por ráfaga de scroll, no uno por fila que entra o sale.
+    private static final long WATCH_DEBOUNCE_MS = 300;
+
+    public interface Listener {
+        void onPresenceChanged(String uid);
+        void onTypingChanged(String chatId, String uid);
+    }
+
+    private static class Signal {
+        final String payload;
+        final boolean retained;
+
+        Signal(String payload, boolean retained) {
+            this.payload = payload;
+            this.retained = retained;
+        }
+    }
+
+    private final MqttHub hub;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final TokenBucket limiter = new TokenBucket(SIGNAL_BURST, SIGNALS_PER_SECOND, SystemClock.uptimeMillis());
+    private final Runnable drainTask = this::drain;
+    private final Runnable syncTask = this::syncSubscriptions;
+
+    // Salida
+    private final LinkedHashMap<String, Signal> pending = new LinkedHashMap<>(); // tópico -> último estado
+    private final Map<String, String> sentRetained = new HashMap<>();
+    private final Set<String> announcedTyping = new HashSet<>();
+    private final Map<String, Long> lastTypingSignal = new HashMap<>(); // chatId -> uptime
+    private final Map<String, Runnable> idleTimers = new HashMap<>();
+    private boolean online;
+
+    // Entrada
+    private final Map<String, Integer> watchers = new HashMap<>(); // uid -> filas/pantallas que lo muestran
+    private final Set<String> subscribed = new HashSet<>();
+    private final Set<String> onlineUids = new HashSet<>();
+    private final Map<String, Map<String, Long>> typing = new HashMap<>(); // chatId -> uid -> expira
+
+    private String myUid;
+
+    PresenceManager(MqttHub hub) {
+        this.hub = hub;
+    }
+
+    public void addListener(Listener listener) { listeners.add(listener); }
+
+    public void removeListener(Listener listener) { listeners.remove(listener); }
+
+    public boolean isOnline(String uid) {
+        return onlineUids.contains(uid);
+    }
+
+    /** Alguien (distinto de mí) está escribiendo en el chat. */
+    public boolean isTyping(String chatId) {
+        Map<String, Long> users = typing.get(chatId);
+        return users != null && !users.isEmpty();
+    }
+
+    /** Estado de la fila de un contacto o grupo en la lista principal. */
+    public boolean isTypingInRow(String rowUid) {
+        if (myUid == null) return false;
+        if (GroupDirectory.isGroupChat(rowUid)) return isTyping(rowUid);
+        Map<String, Long> users = typing.get(privateChatId(rowUid));
+        return users != null && users.containsKey(rowUid);
+    }
+
+    // --- Salida ---
+
+    void start(String uid) {
+        myUid = uid;
+    }
+
+    /** Sesión cerrada: se olvida todo el estado (el "0" final lo publica el hub). */
+    void stop() {
+        handler.removeCallbacksAndMessages(null);
+        pending.clear();
+        sentRetained.clear();
+        announcedTyping.clear();
+        lastTypingSignal.clear();
+        idleTimers.clear();
+        watchers.clear();
+        subscribed.clear();
+        onlineUids.clear();
+        typing.clear();
+        online = false;
+        myUid = null;
+    }
+
+    /** Conexión (re)establecida: el broker pudo haber publicado el Last Will, se reafirma el estado. */
+    void onConnected(boolean foreground) {
+        if (myUid == null) return;
+        // Con cleanSession el broker olvidó las suscripciones de presencia.
+        subscribed.clear();
+        syncSubscriptions();
+        sentRetained.clear();
+        online = foreground;
+        enqueue(hub.presenceTopic(myUid), foreground ? "1" : "0", true);
+    }
+
+    /** "En línea" equivale a tener la app en primer plano. */
+    void setOnline(boolean value) {
+        if (myUid == null || online == value) return;
+        online = value;
+        enqueue(hub.presenceTopic(myUid), value ? "1" : "0", true);
+    }
+
+    /** Llamar en cada cambio del texto; el throttling ocurre aquí. */
+    public void onLocalTyping(String chatId) {
+        String topic = hub.typingTopic(chatId);
+        if (topic == null || myUid == null) return;
+
+        long now = SystemClock.uptimeMillis();
+        Long last = lastTypingSignal.get(chatId);
+        if (last == null || now - last >= TYPING_REFRESH_MS) {
+            lastTypingSignal.put(chatId, now);
+            enqueue(topic, myUid + ":1", false);
+        } else {
+            Metrics.increment("presence.keystrokes_coalesced");
+        }
+
+        Runnable timer = idleTimers.get(chatId);
+        if (timer == null) {
+            timer = () -> stopTyping(chatId);
+            idleTimers.put(chatId, timer);
+        } else {
+            handler.removeCallbacks(timer);
+        }
+        handler.postDelayed(timer, TYPING_IDLE_MS);
+    }
+
+    /** Mensaje enviado, texto borrado o chat cerrado. */
+    public void stopTyping(String chatId) {
+        Runnable timer = idleTimers.remove(chatId);
+        if (timer != null) handler.removeCallbacks(timer);
+        if (lastTypingSignal.remove(chatId) == null) return;
+
+        String topic = hub.typingTopic(chatId);
+        if (topic == null) return;
+        if (announcedTyping.contains(topic)) {
+            enqueue(topic, myUid + ":0", false);
+        } else if (pending.remove(topic) != null) {
+            // El "1" nunca salió: se cancelan ambos.
+            Metrics.increment("presence.signals_coalesced");
+        }
+    }
+
+    private void enqueue(String topic, String payload, boolean retained) {
+        if (retained && payload.equals(sentRetained.get(topic)) && !pending.containsKey(topic)) return;
+        if (pending.put(topic, new Signal(payload, retained)) != null) {
+            Metrics.increment("presence.signals_coalesced");
+        }
+        drain();
+    }
+
+    private void drain() {
+        handler.removeCallbacks(drainTask);
+        long now = SystemClock.uptimeMillis();
+        Iterator<Map.Entry<String, Signal>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            if (!hub.isConnected()) return; // onConnected() reafirma la presencia
+            if (!limiter.tryAcquire(now)) {
+                Metrics.increment("presence.signals_deferred");
+                handler.postDelayed(drainTask, limiter.millisUntilToken(now));
+                return;
+            }
+            Map.Entry<String, Signal> entry = it.next();
+            it.remove();
+            String topic = entry.getKey();
+            Signal signal = entry.getValue();
+            hub.publishSignal(topic, signal.payload, signal.retained);
+            Metrics.increment("presence.signals_sent");
+
+            if (signal.retained) {
+                sentRetained.put(topic, signal.payload);
+            } else if (signal.payload.endsWith(":1")) {
+                announcedTyping.add(topic);
+            } else {
+                announcedTyping.remove(topic);
+            }
+        }
+    }
+
+    // --- Entrada ---
+
+    /** Una fila visible o un chat abierto muestra la presencia de 'uid'. */
+    public void watch(String uid) {
+        if (uid == null || uid.equals(myUid) || GroupDirectory.isGroupChat(uid)) return;
+        Integer count = watchers.get(uid);
+        watchers.put(uid, count == null ? 1 : count + 1);
+        if (count == null) scheduleSync();
+    }
+
+    public void unwatch(String uid) {
+        Integer count = watchers.get(uid);
+        if (count == null) return;
+        if (count > 1) {
+            watchers.put(uid, count - 1);
+            return;
+        }
+        watchers.remove(uid);
+        scheduleSync();
+    }
+
+    private void scheduleSync() {
+        handler.removeCallbacks(syncTask);
+        handler.postDelayed(syncTask, WATCH_DEBOUNCE_MS);
+    }
+
+    /** Lleva las suscripciones del broker al conjunto observado, en un SUBSCRIBE y un UNSUBSCRIBE. */
+    private void syncSubscriptions() {
+        handler.removeCallbacks(syncTask);
+        if (!hub.isConnected()) return; // onConnected() vuelve a sincronizar
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String uid : watchers.keySet()) {
+            if (!subscribed.contains(uid)) added.add(uid);
+        }
+        for (String uid : subscribed) {
+            if (!watchers.containsKey(uid)) removed.add(uid);
+        }
+        if (!removed.isEmpty()) {
+            hub.unsubscribePresence(removed);
+            subscribed.removeAll(removed);
+            onlineUids.removeAll(removed); // Nadie lo muestra: el estado no se conserva
+        }
+        if (!added.isEmpty()) {
+            hub.subscribePresence(added);
+            subscribed.addAll(added);
+        }
+        Metrics.add("presence.subscribed", added.size());
+    }
+
+    void onPresence(String uid, String payload) {
+        if (!watchers.containsKey(uid)) return; // Llegó tras darse de baja
+        boolean changed = "1".equals(payload) ? onlineUids.add(uid) : onlineUids.remove(uid);
+        if (!changed) return;
+        for (Listener l : new ArrayList<>(listeners)) l.onPresenceChanged(uid);
+    }
+
+    void onTyping(String chatId, String payload) {
+        int sep = payload.lastIndexOf(':');
+        if (sep <= 0) return;
+        String uid = payload.substring(0, sep);
+        if (uid.equals(myUid)) return; // Eco propio en los grupos
+
+        Map<String, Long> users = typing.get(chatId);
+        boolean changed;
+        if (payload.endsWith(":1")) {
+            if (users == null) {
+                users = new HashMap<>();
+                typing.put(chatId, users);
+            }
+            changed = users.put(uid, SystemClock.uptimeMillis() + TYPING_TIMEOUT_MS) == null;
+            handler.postDelayed(() -> expire(chatId, uid), TYPING_TIMEOUT_MS);
+        } else {
+            changed = users != null && users.remove(uid) != null;
+        }
+        if (changed) notifyTyping(chatId, uid);
+    }
+
+    private void expire(String chatId, String uid) {
+        Map<String, Long> users = typing.get(chatId);
+        Long expiresAt = users == null ? null : users.get(uid);
+        if (expiresAt == null || expiresAt > SystemClock.uptimeMillis()) return;
+        users.remove(uid);
+        notifyTyping(chatId, uid);
+    }
+
+    private void notifyTyping(String chatId, String uid) {
+        for (Listener l : new ArrayList<>(listeners)) l.onTypingChanged(chatId, uid);
+    }
+
+    private String privateChatId(String otherUid) {
+        return (myUid.compareTo(otherUid) < 0) ? myUid + "_" + otherUid : otherUid + "_" + myUid;
+    }
+}
@@ -81,7 +81,7 @@ public class ProfileActivity extends AppCompatActivity {
         mDatabase.addValueEventListener(new ValueEventListener() {
             @Override
             public void onDataChange(@NonNull DataSnapshot snapshot) {
-                User user = snapshot.getValue(User.class);
+                User user = SnapshotMapper.toUser(snapshot);
                 if (user != null) {
                     tvName.setText(user.name);
                     tvEmail.setText(user.email);
@@ -111,7 +111,8 @@ public class ProfileActivity extends AppCompatActivity {
         fileRef.putFile(imageUri).addOnSuccessListener(taskSnapshot -> {
             fileRef.getDownloadUrl().addOnSuccessListener(uri -> {
                 // Actualizar referencia en la base de datos
-                mDatabase.child("photoUrl").setValue(uri.toString());
+                // updatedAt avisa a los demás clientes (sincronización incremental del directorio)
+                mDatabase.updateChildren(SnapshotMapper.userUpdate("photoUrl", uri.toString()));
                 Toast.makeText(this, "Foto actualizada", Toast.LENGTH_SHORT).show();
             });
         }).addOnFailureListener(e ->
@@ -121,7 +122,7 @@ public class ProfileActivity extends AppCompatActivity {
 
     private void deletePhoto() {
         // Borrado lógico: Se elimina la referencia URL, volviendo al icono por defecto
-        mDatabase.child("photoUrl").setValue("").addOnCompleteListener(task -> {
+        mDatabase.updateChildren(SnapshotMapper.userUpdate("photoUrl", "")).addOnCompleteListener(task -> {
             if (task.isSuccessful()) {
                 Toast.makeText(this, "Foto eliminada", Toast.LENGTH_SHORT).show();
                 ivProfile.setImageResource(R.mipmap.ic_launcher_round);
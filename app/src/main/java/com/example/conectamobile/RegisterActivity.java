@@ -118,7 +118,7 @@ public class RegisterActivity extends AppCompatActivity {
     // Paso 3: Guardar en Base de Datos NoSQL
     private void saveUserToDb(String uid, String email, String name, String photoUrl) {
         User user = new User(uid, email, name, photoUrl);
-        mDatabase.child("users").child(uid).setValue(user)
+        mDatabase.child("users").child(uid).setValue(SnapshotMapper.fromUser(user))
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
                         Toast.makeText(this, "Registro exitoso", Toast.LENGTH_SHORT).show();
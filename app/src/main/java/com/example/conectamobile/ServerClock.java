@@ -0,0 +1,72 @@
+package com.example.conectamobile;
+
+import androidx.annotation.NonNull;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hora del servidor de Firebase, estimada con .info/serverTimeOffset.
+ *
+ * El reloj del dispositivo puede estar adelantado o atrasado meses. Todo lo que decide un
+ * bucket compartido (el mes de un mensaje nuevo, el bucket caliente, el corte de retención)
+ * usa now() en vez de System.currentTimeMillis(), para que todos los clientes coincidan.
+ * Antes de la primera conexión del proceso el desfase es 0 (reloj local): lo destructivo
+ * (la retención) espera a whenSynced(). Todo ocurre en el hilo principal.
+ */
+public class ServerClock {
+
+    private static ServerClock instance;
+
+    private final List<Runnable> waiting = new ArrayList<>();
+    private volatile long offsetMs;
+    private boolean synced;
+
+    public static synchronized ServerClock getInstance() {
+        if (instance == null) instance = new ServerClock();
+        return instance;
+    }
+
+    private ServerClock() {
+        FirebaseDatabase db = FirebaseDatabase.getInstance();
+        db.getReference(".info/serverTimeOffset").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Long offset = snapshot.getValue(Long.class);
+                if (offset != null) offsetMs = offset;
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { }
+        });
+        // El desfase se negocia en el saludo con el servidor: vale desde la primera conexión.
+        db.getReference(".info/connected").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (synced || !Boolean.TRUE.equals(snapshot.getValue(Boolean.class))) return;
+                synced = true;
+                List<Runnable> ready = new ArrayList<>(waiting);
+                waiting.clear();
+                for (Runnable action : ready) action.run();
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { }
+        });
+    }
+
+    /** Hora estimada del servidor, en milisegundos. */
+    public long now() {
+        return System.currentTimeMillis() + offsetMs;
+    }
+
+    /** Ejecuta 'action' cuando el desfase ya viene del servidor (de inmediato si ya se conoce). */
+    public void whenSynced(Runnable action) {
+        if (synced) {
+            action.run();
+        } else {
+            waiting.add(action);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.conectamobile;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.ServerValue;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mapeadores escritos a mano entre Firebase y los modelos (Message / User).
+ *
+ * snap.getValue(Message.class) pasa por el mapeador reflexivo de Firebase
+ * (introspección de la clase, búsqueda de setters/campos y conversión genérica por
+ * cada hijo). Aquí leemos los campos directamente del Map crudo que Firebase ya
+ * construyó (snap.getValue() sin clase), sin reflexión y con menos basura.
+ *
+ * Al agregar un campo a Message o User hay que agregarlo también aquí.
+ */
+public final class SnapshotMapper {
+
+    private SnapshotMapper() { }
+
+    // --- Lectura ---
+
+    /** Devuelve null si el nodo no es un mensaje válido (mismo contrato que getValue(Class)). */
+    public static Message toMessage(DataSnapshot snap) {
+        Message msg = toMessage(snap.getValue());
+        if (msg != null) msg.id = snap.getKey();
+        return msg;
+    }
+
+    public static Message toMessage(Object raw) {
+        if (!(raw instanceof Map)) return null;
+        Map<?, ?> map = (Map<?, ?>) raw;
+        Message msg = new Message();
+        msg.senderId = asString(map.get("senderId"));
+        msg.text = asString(map.get("text"));
+        msg.timestamp = asLong(map.get("timestamp"));
+        return msg;
+    }
+
+    public static User toUser(DataSnapshot snap) {
+        return toUser(snap.getValue());
+    }
+
+    public static User toUser(Object raw) {
+        if (!(raw instanceof Map)) return null;
+        Map<?, ?> map = (Map<?, ?>) raw;
+        User user = new User();
+        user.uid = asString(map.get("uid"));
+        user.email = asString(map.get("email"));
+        user.name = asString(map.get("name"));
+        user.photoUrl = asString(map.get("photoUrl"));
+        user.updatedAt = asLong(map.get("updatedAt"));
+        return user;
+    }
+
+    // --- Escritura (para setValue / updateChildren) ---
+
+    public static Map<String, Object> fromMessage(Message msg) {
+        Map<String, Object> map = new HashMap<>(4);
+        map.put("senderId", msg.senderId);
+        map.put("text", msg.text);
+        map.put("timestamp", msg.timestamp);
+        return map;
+    }
+
+    /** updatedAt lo asigna siempre el servidor, para que la marca de agua no dependa del reloj local. */
+    public static Map<String, Object> fromUser(User user) {
+        Map<String, Object> map = new HashMap<>(6);
+        map.put("uid", user.uid);
+        map.put("email", user.email);
+        map.put("name", user.name);
+        map.put("photoUrl", user.photoUrl);
+        map.put("updatedAt", ServerValue.TIMESTAMP);
+        return map;
+    }
+
+    /** Cambio parcial de perfil: el campo editado más la nueva marca updatedAt. */
+    public static Map<String, Object> userUpdate(String field, Object value) {
+        Map<String, Object> map = new HashMap<>(2);
+        map.put(field, value);
+        map.put("updatedAt", ServerValue.TIMESTAMP);
+        return map;
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    // Firebase entrega los números como Long o Double según su valor.
+    private static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+}
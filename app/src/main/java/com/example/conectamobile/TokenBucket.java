@@ -0,0 +1,46 @@
+package com.example.conectamobile;
+
+/**
+ * Limitador de tasa por cubeta de tokens.
+ * La cubeta se rellena a 'ratePerSecond' tokens por segundo hasta 'capacity' (la ráfaga
+ * máxima permitida). Cada evento consume un token; sin tokens, el evento se rechaza.
+ *
+ * El reloj se recibe como parámetro (milisegundos monótonos, ej. SystemClock.uptimeMillis())
+ * para poder probarlo sin Android y sin esperas reales. No es thread-safe.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double ratePerMs;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double capacity, double ratePerSecond, long nowMs) {
+        this.capacity = capacity;
+        this.ratePerMs = ratePerSecond / 1000.0;
+        this.tokens = capacity;
+        this.lastRefill = nowMs;
+    }
+
+    /** Consume un token si hay disponible. */
+    public boolean tryAcquire(long nowMs) {
+        refill(nowMs);
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /** Milisegundos hasta que haya un token disponible (0 si ya lo hay). */
+    public long millisUntilToken(long nowMs) {
+        refill(nowMs);
+        if (tokens >= 1) return 0;
+        return (long) Math.ceil((1 - tokens) / ratePerMs);
+    }
+
+    private void refill(long nowMs) {
+        if (nowMs > lastRefill) {
+            tokens = Math.min(capacity, tokens + (nowMs - lastRefill) * ratePerMs);
+            lastRefill = nowMs;
+        }
+    }
+}
@@ -10,6 +10,8 @@ public class User {
     public String email;
     public String name;
     public String photoUrl;
+    // Última modificación (timestamp del servidor). Base de la sincronización incremental.
+    public long updatedAt;
 
     // Constructor vacío OBLIGATORIO para la deserialización de Firebase
     public User() { }
@@ -10,26 +10,103 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Adaptador para la lista de Contactos (RecyclerView).
  * Vincula los datos del modelo 'User' con la vista 'item_user.xml'.
  */
 public class UserAdapter extends RecyclerView.Adapter<UserAdapter.ViewHolder> {
+
+    // Payload de notifyItemChanged(): solo cambió la presencia o el "escribiendo...".
+    public static final Object PAYLOAD_PRESENCE = new Object();
+
     private List<User> users;
     private Context context;
+    private PresenceManager presence;
+    // uid -> posición en la lista, para aplicar cada cambio del directorio en O(1)
+    private final Map<String, Integer> positions = new HashMap<>();
 
     public UserAdapter(Context context, List<User> users) {
         this.context = context;
         this.users = users;
     }
 
+    public void setPresence(PresenceManager presence) {
+        this.presence = presence;
+    }
+
+    /**
+     * Aplica usuarios nuevos o modificados (carga local, delta de UserDirectory o grupos).
+     * Cada uno es una inserción o un cambio puntual: nunca se repinta la lista completa.
+     */
+    public void applyUsers(List<User> changed, String excludeUid) {
+        for (User user : changed) {
+            // Filtrar: No mostrarme a mí mismo en la lista de contactos
+            if (user.uid == null || user.uid.equals(excludeUid)) continue;
+            Integer position = positions.get(user.uid);
+            if (position != null) {
+                users.set(position, user);
+                notifyItemChanged(position);
+            } else {
+                positions.put(user.uid, users.size());
+                users.add(user);
+                notifyItemInserted(users.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Presencia solo de las filas en pantalla: al entrar una fila se observa su contacto y al
+     * salir se deja de observar (PresenceManager agrupa las (des)suscripciones del scroll).
+     */
+    @Override
+    public void onViewAttachedToWindow(@NonNull ViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        if (presence == null || position == RecyclerView.NO_POSITION) return;
+        holder.watchedUid = users.get(position).uid;
+        presence.watch(holder.watchedUid);
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(@NonNull ViewHolder holder) {
+        if (presence != null && holder.watchedUid != null) presence.unwatch(holder.watchedUid);
+        holder.watchedUid = null;
+    }
+
+    /** Cambió la presencia o el "escribiendo..." de una fila (contacto o "group:{id}"). */
+    public void notifyPresenceChanged(String rowUid) {
+        Integer position = positions.get(rowUid);
+        if (position != null) notifyItemChanged(position, PAYLOAD_PRESENCE);
+    }
+
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.item_user, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        // Navegación al Chat al hacer clic (un listener por ViewHolder, no uno por bind)
+        holder.itemView.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) return;
+            User user = users.get(position);
+            Intent intent = new Intent(context, ChatActivity.class);
+            intent.putExtra("targetUid", user.uid);
+            intent.putExtra("targetName", user.name);
+            context.startActivity(intent);
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_PRESENCE)) {
+            bindPresence(holder, users.get(position));
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
     }
 
     @Override
@@ -37,6 +114,7 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.ViewHolder> {
         User user = users.get(position);
         holder.tvName.setText(user.name);
         holder.tvEmail.setText(user.email);
+        bindPresence(holder, user);
 
         // Uso de Glide para carga eficiente de avatares
         if (user.photoUrl != null && !user.photoUrl.isEmpty()) {
@@ -46,30 +124,44 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.ViewHolder> {
                     .error(R.mipmap.ic_launcher_round)
                     .circleCrop()
                     .into(holder.ivProfile);
-        } else {
+            holder.showsPlaceholder = false;
+        } else if (!holder.showsPlaceholder) {
+            // Sin foto: el ícono por defecto solo se asigna si la fila reciclada no lo tenía ya
+            // (setImageResource() crea un Drawable nuevo en cada llamada).
+            Glide.with(context).clear(holder.ivProfile);
             holder.ivProfile.setImageResource(R.mipmap.ic_launcher_round);
+            holder.showsPlaceholder = true;
         }
+    }
 
-        // Navegación al Chat al hacer clic
-        holder.itemView.setOnClickListener(v -> {
-            Intent intent = new Intent(context, ChatActivity.class);
-            intent.putExtra("targetUid", user.uid);
-            intent.putExtra("targetName", user.name);
-            context.startActivity(intent);
-        });
+    private void bindPresence(ViewHolder holder, User user) {
+        if (presence != null && presence.isTypingInRow(user.uid)) {
+            holder.tvStatus.setVisibility(View.VISIBLE);
+            holder.tvStatus.setText("escribiendo...");
+        } else if (presence != null && presence.isOnline(user.uid)) {
+            holder.tvStatus.setVisibility(View.VISIBLE);
+            holder.tvStatus.setText("en línea");
+        } else {
+            holder.tvStatus.setVisibility(View.GONE);
+        }
     }
 
     @Override
     public int getItemCount() { return users.size(); }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
-        TextView tvName, tvEmail;
+        TextView tvName, tvEmail, tvStatus;
         ImageView ivProfile;
+        // El layout ya trae el ícono por defecto
+        boolean showsPlaceholder = true;
+        // Contacto cuya presencia se observa mientras la fila está en pantalla
+        String watchedUid;
 
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
             tvName = itemView.findViewById(R.id.tvUserName);
             tvEmail = itemView.findViewById(R.id.tvUserEmail);
+            tvStatus = itemView.findViewById(R.id.tvUserStatus);
             ivProfile = itemView.findViewById(R.id.ivItemProfile);
         }
     }
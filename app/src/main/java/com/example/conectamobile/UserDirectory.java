@@ -0,0 +1,269 @@
+package com.example.conectamobile;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Directorio local de usuarios con sincronización incremental (Delta Sync).
+ *
+ * Cada usuario lleva 'updatedAt' (timestamp del servidor) que mantienen el registro y
+ * la edición de perfil. El directorio se guarda en disco junto con la marca de agua
+ * (el mayor updatedAt visto), y al iniciar solo se consultan los usuarios con
+ * updatedAt >= marca. El costo de sincronizar escala con los cambios, no con el total.
+ *
+ * En disco, el directorio completo (user_directory.bin) más un log de cambios
+ * (user_directory.log): cada lote de cambios se agrega al final del log, así que editar
+ * una foto escribe un registro y no el directorio entero. El log se compacta en el
+ * directorio completo cuando crece más que MIN_COMPACT_ENTRIES o que la mitad del directorio.
+ *
+ * Requiere la regla ".indexOn": "updatedAt" en el nodo 'users' de Firebase.
+ */
+public class UserDirectory {
+
+    private static final String TAG = "UserDirectory";
+    private static final int FILE_VERSION = 1;
+    private static final int MIN_COMPACT_ENTRIES = 256;
+
+    public interface Listener {
+        /** Usuarios nuevos o modificados, agrupados por vuelta del hilo principal. */
+        void onUsersChanged(List<User> changed);
+    }
+
+    private final File file;
+    private final File logFile;
+    private final LinkedHashMap<String, User> users = new LinkedHashMap<>();
+    // Un solo hilo de disco para todo el proceso (daemon): cada MainActivity crea su
+    // UserDirectory, pero ninguna tiene que apagarlo.
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "user-directory-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<User> pendingChanges = new ArrayList<>();
+    private long highWaterMark;
+    private boolean loaded;
+    // Estado del log (solo en el hilo io): registros acumulados y cola cortada por un crash.
+    private int logEntries;
+    private boolean logDamaged;
+
+    private Query deltaQuery;
+    private ChildEventListener deltaListener;
+    // startSync() activo; stopSync() antes de terminar la lectura del disco lo cancela.
+    private boolean syncing;
+
+    public UserDirectory(Context context) {
+        file = new File(context.getApplicationContext().getFilesDir(), "user_directory.bin");
+        logFile = new File(context.getApplicationContext().getFilesDir(), "user_directory.log");
+    }
+
+    /** Lee el directorio guardado. Hace E/S de disco: llamar fuera del hilo principal. */
+    public synchronized List<User> load() {
+        if (!loaded) {
+            loaded = true;
+            if (file.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                    if (in.readInt() == FILE_VERSION) {
+                        highWaterMark = in.readLong();
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            User user = readUser(in);
+                            users.put(user.uid, user);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Directorio local ilegible, se sincroniza completo", e);
+                    users.clear();
+                    highWaterMark = 0;
+                    // Sin el directorio base el log solo tiene parte de los usuarios: se descarta
+                    // y la sincronización completa lo rehace.
+                    logDamaged = true;
+                }
+            }
+            if (!logDamaged) replayLog();
+        }
+        return new ArrayList<>(users.values());
+    }
+
+    /** Aplica los cambios del log sobre el directorio leído. Una cola cortada se descarta. */
+    private void replayLog() {
+        if (!logFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            while (true) {
+                in.mark(1);
+                if (in.read() < 0) break; // Fin limpio del log
+                in.reset();
+                User user = readUser(in);
+                users.put(user.uid, user);
+                highWaterMark = Math.max(highWaterMark, user.updatedAt);
+                logEntries++;
+            }
+        } catch (IOException e) {
+            // Registro incompleto (crash a mitad de escritura): lo siguiente que se agregue
+            // quedaría ilegible, así que el próximo persist() compacta.
+            Log.w(TAG, "Log de cambios cortado tras " + logEntries + " registros", e);
+            logDamaged = true;
+        }
+    }
+
+    /**
+     * Lee el directorio guardado en el hilo de disco, lo entrega al listener como un primer
+     * lote y luego escucha solo los usuarios modificados desde la marca de agua.
+     * Sin directorio local (marca 0) la primera consulta trae a todos, incluidos
+     * los registros antiguos que aún no tienen 'updatedAt'.
+     */
+    public void startSync(Listener listener) {
+        syncing = true;
+        io.execute(() -> {
+            List<User> saved = load();
+            mainHandler.post(() -> {
+                if (!syncing) return; // stopSync() mientras se leía el disco
+                if (!saved.isEmpty()) listener.onUsersChanged(saved);
+                attachDelta(listener);
+            });
+        });
+    }
+
+    private void attachDelta(Listener listener) {
+        Query query = FirebaseDatabase.getInstance().getReference("users").orderByChild("updatedAt");
+        // Inclusivo: dos cambios en el mismo milisegundo no se pierden; re-aplicarlos es idempotente.
+        if (highWaterMark > 0) query = query.startAt(highWaterMark);
+
+        deltaListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snap, String previousChildName) { merge(snap, listener); }
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snap, String previousChildName) { merge(snap, listener); }
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snap, String previousChildName) { }
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snap) { }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Sincronización cancelada: " + error.getMessage());
+            }
+        };
+        deltaQuery = query;
+        deltaQuery.addChildEventListener(deltaListener);
+        Metrics.increment("directory.syncs");
+    }
+
+    public void stopSync() {
+        syncing = false;
+        if (deltaQuery != null) deltaQuery.removeEventListener(deltaListener);
+        deltaQuery = null;
+    }
+
+    private void merge(DataSnapshot snap, Listener listener) {
+        User user = SnapshotMapper.toUser(snap);
+        if (user == null || user.uid == null) return;
+        Metrics.increment("directory.delta_users");
+
+        synchronized (this) {
+            users.put(user.uid, user);
+            highWaterMark = Math.max(highWaterMark, user.updatedAt);
+        }
+
+        // La carga inicial llega como una ráfaga de onChildAdded: se notifica y persiste una sola vez.
+        boolean first = pendingChanges.isEmpty();
+        pendingChanges.add(user);
+        if (first) {
+            mainHandler.post(() -> {
+                List<User> changed = new ArrayList<>(pendingChanges);
+                pendingChanges.clear();
+                listener.onUsersChanged(changed);
+                persist(changed);
+            });
+        }
+    }
+
+    /** Agrega un lote de cambios al log, o compacta si el log ya creció demasiado. */
+    private void persist(List<User> changed) {
+        io.execute(() -> {
+            int size;
+            synchronized (this) {
+                size = users.size();
+            }
+            if (logDamaged || logEntries + changed.size() > Math.max(MIN_COMPACT_ENTRIES, size / 2)) {
+                compact();
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)))) {
+                for (User u : changed) writeUser(out, u);
+                logEntries += changed.size();
+            } catch (IOException e) {
+                Log.e(TAG, "Error agregando cambios al directorio", e);
+                logDamaged = true;
+            }
+        });
+    }
+
+    /** Reescribe el directorio completo y vacía el log (solo en el hilo io). */
+    private void compact() {
+        final List<User> snapshot;
+        final long mark;
+        synchronized (this) {
+            snapshot = new ArrayList<>(users.values());
+            mark = highWaterMark;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeLong(mark);
+            out.writeInt(snapshot.size());
+            for (User u : snapshot) writeUser(out, u);
+        } catch (IOException e) {
+            Log.e(TAG, "Error guardando directorio", e);
+            return;
+        }
+        // Reemplazo atómico: un crash a mitad de escritura no corrompe el directorio anterior.
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "No se pudo reemplazar el directorio");
+            return;
+        }
+        // Un crash antes de borrar el log solo repite cambios ya incluidos (idempotente).
+        if (logFile.exists() && !logFile.delete()) Log.w(TAG, "No se pudo borrar el log de cambios");
+        logEntries = 0;
+        logDamaged = false;
+        Metrics.increment("directory.compactions");
+    }
+
+    private static void writeUser(DataOutputStream out, User u) throws IOException {
+        out.writeUTF(nonNull(u.uid));
+        out.writeUTF(nonNull(u.email));
+        out.writeUTF(nonNull(u.name));
+        out.writeUTF(nonNull(u.photoUrl));
+        out.writeLong(u.updatedAt);
+    }
+
+    private static User readUser(DataInputStream in) throws IOException {
+        User user = new User(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+        user.updatedAt = in.readLong();
+        return user;
+    }
+
+    private static String nonNull(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -0,0 +1,388 @@
+package com.example.conectamobile;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Presupuestos de rendimiento de ChatAdapter y UserAdapter, medidos en la JVM con Robolectric.
+ *
+ * Se cuentan creaciones de ViewHolder, binds completos y binds con payload al recorrer las
+ * mismas rutas que usan ChatActivity a través de ChatTimeline (caché, copia MQTT reemplazada
+ * por Firebase, ventana en vivo, hueco de caché, página de historial, estado de envío) y
+ * MainActivity (directorio de usuarios, presencia), con listas de 10k elementos.
+ * Un notifyDataSetChanged() o un bind más caro rompen estas pruebas.
+ *
+ * Los límites de bytes son cotas superiores en la JVM, no cifras del dispositivo:
+ * detectan regresiones gruesas (inflar, cargar Drawables o crear listeners en cada bind).
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class AdapterBindBudgetTest {
+
+    private static final int ITEMS = 10_000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final String ME = "uid_me";
+
+    // Presupuestos
+    private static final int LAYOUT_SLACK = 2;            // Filas extra que el LayoutManager puede preparar
+    private static final int MAX_BINDS_PER_APPEND = 2;    // La fila nueva (+1 por el reciclaje)
+    private static final long MAX_BYTES_PER_BIND = 8 * 1024;
+    private static final long MAX_BYTES_PER_PAYLOAD_BIND = 1024;
+    private static final int MEASURED_BINDS = 10_000;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = new ContextThemeWrapper(ApplicationProvider.getApplicationContext(), R.style.Theme_ConectaMobile);
+    }
+
+    // --- ChatAdapter ---
+
+    @Test
+    public void chatCacheRestore_bindsOnlyVisibleRows() {
+        ChatTimeline timeline = new ChatTimeline();
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline);
+        RecyclerView rv = newRecycler(adapter, true);
+
+        timeline.restore(messages(ITEMS));
+        layout(rv);
+
+        int visible = rv.getChildCount();
+        assertTrue("La prueba necesita filas en pantalla", visible > 0);
+        assertTrue("Se crearon ViewHolders para filas fuera de pantalla", adapter.creates <= visible + LAYOUT_SLACK);
+        assertTrue("Se enlazaron filas fuera de pantalla", adapter.fullBinds <= visible + LAYOUT_SLACK);
+    }
+
+    @Test
+    public void chatAppend_bindsOnlyTheNewRow() {
+        ChatTimeline timeline = timeline(messages(ITEMS));
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline);
+        RecyclerView rv = newRecycler(adapter, true);
+        adapter.reset();
+
+        rv.scrollToPosition(timeline.addRealtime(new Message("uid_other", "nuevo", System.currentTimeMillis())));
+        layout(rv);
+
+        assertTrue("Binds por mensaje nuevo: " + adapter.fullBinds, adapter.fullBinds <= MAX_BINDS_PER_APPEND);
+    }
+
+    @Test
+    public void chatMqttCopy_isReplacedInPlaceByFirebaseCopy() {
+        ChatTimeline timeline = timeline(messages(ITEMS));
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline);
+        RecyclerView rv = newRecycler(adapter, true);
+        long now = System.currentTimeMillis();
+        rv.scrollToPosition(timeline.addRealtime(new Message("uid_other", "nuevo", now)));
+        layout(rv);
+        adapter.reset();
+
+        // La copia de Firebase (con clave) llega después: misma fila, sin inserción.
+        Message live = new Message("uid_other", "nuevo", now);
+        live.id = key(ITEMS);
+        timeline.addLive(live);
+        layout(rv);
+
+        assertEquals(ITEMS + 1, adapter.getItemCount());
+        assertEquals(0, adapter.creates);
+        assertTrue("Binds por reemplazo: " + adapter.fullBinds, adapter.fullBinds <= 1);
+    }
+
+    @Test
+    public void chatHotWindowOlderThanCache_doesNotRebindVisibleRows() {
+        // La ventana en vivo trae, en orden ascendente, mensajes anteriores a la caché.
+        ChatTimeline timeline = timeline(messages(ChatActivity.HOT_WINDOW, ITEMS));
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline);
+        RecyclerView rv = newRecycler(adapter, true);
+        adapter.reset();
+
+        for (Message m : messages(0, ChatActivity.HOT_WINDOW)) timeline.addLive(m);
+        layout(rv);
+
+        assertEquals(ITEMS + ChatActivity.HOT_WINDOW, adapter.getItemCount());
+        assertEquals("Los mensajes antiguos se insertan fuera de pantalla", 0, adapter.fullBinds);
+    }
+
+    @Test
+    public void chatCacheGap_removesOnlyOffscreenRows() {
+        ChatTimeline timeline = timeline(messages(ITEMS));
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline);
+        RecyclerView rv = newRecycler(adapter, true);
+        adapter.reset();
+
+        timeline.removeOlderThan(key(ITEMS / 2));
+        layout(rv);
+
+        assertEquals(ITEMS / 2, adapter.getItemCount());
+        assertEquals(0, adapter.fullBinds);
+    }
+
+    @Test
+    public void chatPrependOlderPage_doesNotRebindVisibleRows() {
+        ChatTimeline timeline = timeline(messages(ChatHistoryReader.PAGE_SIZE, ITEMS));
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline);
+        RecyclerView rv = newRecycler(adapter, true);
+        adapter.reset();
+
+        timeline.addOlder(messages(0, ChatHistoryReader.PAGE_SIZE));
+        layout(rv);
+
+        assertEquals("Una página de historial no debe repintar lo visible", 0, adapter.fullBinds);
+    }
+
+    @Test
+    public void chatStateChange_rebindsOneRowWithPayload() {
+        List<Message> list = messages(ITEMS);
+        Message pending = new Message(ME, "pendiente", System.currentTimeMillis());
+        pending.state = Message.STATE_PENDING;
+        list.add(pending);
+        ChatTimeline timeline = timeline(list);
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline);
+        RecyclerView rv = newRecycler(adapter, true);
+        adapter.reset();
+
+        pending.state = Message.STATE_CONFIRMED;
+        timeline.stateChanged(pending);
+        layout(rv);
+
+        assertEquals(0, adapter.fullBinds);
+        assertEquals(1, adapter.payloadBinds);
+    }
+
+    /** Control: confirma que los contadores detectan una reconstrucción completa. */
+    @Test
+    public void chatNotifyDataSetChanged_rebindsEveryVisibleRow() {
+        CountingChatAdapter adapter = new CountingChatAdapter(context, timeline(messages(ITEMS)));
+        RecyclerView rv = newRecycler(adapter, true);
+        adapter.reset();
+
+        adapter.notifyDataSetChanged();
+        layout(rv);
+
+        assertTrue(adapter.fullBinds >= rv.getChildCount());
+    }
+
+    @Test
+    public void chatBind_staysWithinAllocationBudget() {
+        List<Message> list = messages(ITEMS);
+        list.get(list.size() - 1).state = Message.STATE_PENDING;
+        ChatAdapter adapter = new ChatAdapter(context, timeline(list), ME);
+        ChatAdapter.ViewHolder holder = adapter.createViewHolder(new FrameLayout(context), 0);
+
+        long full = bytesPerBind(() -> {
+            for (int i = 0; i < MEASURED_BINDS; i++) adapter.bindViewHolder(holder, i % ITEMS);
+        });
+        List<Object> payload = Collections.singletonList(ChatAdapter.PAYLOAD_STATE);
+        long partial = bytesPerBind(() -> {
+            for (int i = 0; i < MEASURED_BINDS; i++) adapter.onBindViewHolder(holder, ITEMS - 1, payload);
+        });
+
+        assertTrue("Bytes por bind: " + full, full <= MAX_BYTES_PER_BIND);
+        assertTrue("Bytes por bind con payload: " + partial, partial <= MAX_BYTES_PER_PAYLOAD_BIND);
+    }
+
+    // --- UserAdapter ---
+
+    @Test
+    public void contactsDeltaSync_bindsOnlyChangedVisibleRows() {
+        CountingUserAdapter adapter = new CountingUserAdapter(context, new ArrayList<>());
+        RecyclerView rv = newRecycler(adapter, false);
+
+        // Carga inicial en lotes, como los entrega UserDirectory (uno por vuelta del hilo principal).
+        List<User> all = users(ITEMS);
+        for (int from = 0; from < ITEMS; from += 500) {
+            adapter.applyUsers(all.subList(from, Math.min(ITEMS, from + 500)), ME);
+            layout(rv);
+        }
+        int visible = rv.getChildCount();
+        assertTrue(visible > 0);
+        assertTrue(adapter.creates <= visible + LAYOUT_SLACK);
+        assertEquals(ITEMS, adapter.getItemCount());
+        adapter.reset();
+
+        // Delta: 5 usuarios visibles y 5 fuera de pantalla cambian su nombre.
+        List<User> changed = new ArrayList<>();
+        for (int i = 0; i < 5; i++) changed.add(renamed(all.get(i)));
+        for (int i = ITEMS - 5; i < ITEMS; i++) changed.add(renamed(all.get(i)));
+        adapter.applyUsers(changed, ME);
+        layout(rv);
+
+        assertTrue("Binds por delta: " + adapter.fullBinds, adapter.fullBinds <= 5);
+        assertEquals("Un usuario existente no debe insertarse otra vez", ITEMS, adapter.getItemCount());
+    }
+
+    @Test
+    public void contactPresence_rebindsOneRowWithPayload() {
+        CountingUserAdapter adapter = new CountingUserAdapter(context, new ArrayList<>());
+        adapter.applyUsers(users(ITEMS), ME);
+        RecyclerView rv = newRecycler(adapter, false);
+        adapter.reset();
+
+        adapter.notifyPresenceChanged("uid0");
+        adapter.notifyPresenceChanged("uid_desconocido");
+        layout(rv);
+
+        assertEquals(0, adapter.fullBinds);
+        assertEquals(1, adapter.payloadBinds);
+    }
+
+    @Test
+    public void contactBind_staysWithinAllocationBudget() {
+        UserAdapter adapter = new UserAdapter(context, new ArrayList<>());
+        adapter.applyUsers(users(ITEMS), ME);
+        UserAdapter.ViewHolder holder = adapter.createViewHolder(new FrameLayout(context), 0);
+
+        long full = bytesPerBind(() -> {
+            for (int i = 0; i < MEASURED_BINDS; i++) adapter.bindViewHolder(holder, i % ITEMS);
+        });
+        List<Object> payload = Collections.singletonList(UserAdapter.PAYLOAD_PRESENCE);
+        long partial = bytesPerBind(() -> {
+            for (int i = 0; i < MEASURED_BINDS; i++) adapter.onBindViewHolder(holder, 0, payload);
+        });
+
+        assertTrue("Bytes por bind: " + full, full <= MAX_BYTES_PER_BIND);
+        assertTrue("Bytes por bind con payload: " + partial, partial <= MAX_BYTES_PER_PAYLOAD_BIND);
+    }
+
+    // --- Adaptadores instrumentados ---
+
+    private static class CountingChatAdapter extends ChatAdapter {
+        int creates, fullBinds, payloadBinds;
+
+        CountingChatAdapter(Context context, ChatTimeline timeline) {
+            super(context, timeline, ME);
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            creates++;
+            return super.onCreateViewHolder(parent, viewType);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+            if (payloads.isEmpty()) fullBinds++; else payloadBinds++;
+            super.onBindViewHolder(holder, position, payloads);
+        }
+
+        void reset() { creates = fullBinds = payloadBinds = 0; }
+    }
+
+    private static class CountingUserAdapter extends UserAdapter {
+        int creates, fullBinds, payloadBinds;
+
+        CountingUserAdapter(Context context, List<User> users) {
+            super(context, users);
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            creates++;
+            return super.onCreateViewHolder(parent, viewType);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+            if (payloads.isEmpty()) fullBinds++; else payloadBinds++;
+            super.onBindViewHolder(holder, position, payloads);
+        }
+
+        void reset() { creates = fullBinds = payloadBinds = 0; }
+    }
+
+    // --- Utilidades ---
+
+    private RecyclerView newRecycler(RecyclerView.Adapter<?> adapter, boolean stackFromEnd) {
+        RecyclerView rv = new RecyclerView(context);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(context);
+        layoutManager.setStackFromEnd(stackFromEnd);
+        rv.setLayoutManager(layoutManager);
+        // Sin animaciones: cada cambio se aplica en el siguiente layout, de forma determinista.
+        rv.setItemAnimator(null);
+        rv.setAdapter(adapter);
+        layout(rv);
+        return rv;
+    }
+
+    /** Pasada de measure/layout: procesa las notificaciones pendientes del adaptador. */
+    private static void layout(RecyclerView rv) {
+        rv.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        rv.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /** Bytes asignados por el hilo actual por bind, tras una pasada de calentamiento. */
+    private static long bytesPerBind(Runnable binds) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("La JVM no mide asignaciones por hilo", bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        binds.run(); // Calentamiento: JIT y cachés de recursos
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        binds.run();
+        return (threads.getThreadAllocatedBytes(id) - before) / MEASURED_BINDS;
+    }
+
+    private static ChatTimeline timeline(List<Message> initial) {
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.restore(initial);
+        return timeline;
+    }
+
+    private static List<Message> messages(int count) {
+        return messages(0, count);
+    }
+
+    // Conversación realista: el emisor cambia cada 3 mensajes (las filas recicladas cambian de lado).
+    // Las claves, como las push de Firebase, ordenan igual que los mensajes.
+    private static List<Message> messages(int from, int count) {
+        List<Message> list = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            Message msg = new Message((i / 3) % 2 == 0 ? ME : "uid_other", "Mensaje de prueba número " + i, 1_700_000_000_000L + i);
+            msg.id = key(i);
+            list.add(msg);
+        }
+        return list;
+    }
+
+    private static String key(int i) {
+        return String.format(java.util.Locale.US, "key%08d", i);
+    }
+
+    private static List<User> users(int count) {
+        List<User> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) list.add(new User("uid" + i, "user" + i + "@conecta.cl", "Usuario " + i, ""));
+        return list;
+    }
+
+    private static User renamed(User user) {
+        return new User(user.uid, user.email, user.name + " (editado)", user.photoUrl);
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.conectamobile;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mezcla de caché, Firebase y MQTT en ChatTimeline: orden por clave y sin duplicados.
+ * Cada prueba recorre los mismos llamados que hace ChatActivity con cada fuente.
+ */
+public class ChatTimelineTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Test
+    public void mqttCopyFirst_isReplacedByFirebaseCopyInPlace() {
+        RecordingObserver observer = new RecordingObserver();
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.setObserver(observer);
+        timeline.addLive(keyed("k1", "ana", "hola", T0));
+
+        // MQTT suele ganarle a Firebase: la copia sin clave se pinta primero.
+        assertEquals(1, timeline.addRealtime(new Message("bob", "¿cómo estás?", T0 + 500)));
+        assertEquals(1, timeline.addLive(keyed("k2", "bob", "¿cómo estás?", T0 + 100)));
+
+        assertEquals(2, timeline.size());
+        assertEquals("k2", timeline.messages().get(1).id);
+        assertEquals("La fila se repinta, no se inserta otra", Arrays.asList("ins 0", "ins 1", "chg 1"), observer.events);
+    }
+
+    @Test
+    public void firebaseCopyFirst_dropsLaterMqttCopy() {
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.addLive(keyed("k1", "bob", "hola", T0));
+
+        assertEquals(-1, timeline.addRealtime(new Message("bob", "hola", T0 + 300)));
+        assertEquals(1, timeline.size());
+    }
+
+    @Test
+    public void repeatedText_isNotMistakenForACopy() {
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.addLive(keyed("k1", "bob", "ok", T0));
+        timeline.addRealtime(new Message("bob", "ok", T0 + 100)); // Copia de k1
+
+        // Un segundo "ok" real: k1 ya absorbió su copia.
+        assertEquals(1, timeline.addRealtime(new Message("bob", "ok", T0 + 5_000)));
+        // Otro emisor con el mismo texto tampoco es una copia.
+        assertEquals(2, timeline.addRealtime(new Message("ana", "ok", T0 + 6_000)));
+        assertEquals(3, timeline.size());
+    }
+
+    @Test
+    public void ownOptimisticEcho_absorbsBrokerEcho() {
+        ChatTimeline timeline = new ChatTimeline();
+        Message mine = keyed("k1", "yo", "enviado", T0);
+        mine.state = Message.STATE_PENDING;
+        timeline.addLocal(mine);
+
+        assertEquals(-1, timeline.addRealtime(new Message("yo", "enviado", T0 + 200)));
+        assertEquals("El eco de Firebase tampoco se repite", -1, timeline.addLive(keyed("k1", "yo", "enviado", T0)));
+        assertEquals(1, timeline.size());
+    }
+
+    @Test
+    public void cachedKeys_areNotRepeatedByFirebase() {
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.restore(Arrays.asList(keyed("k1", "a", "1", T0), keyed("k2", "b", "2", T0 + 1)));
+
+        assertEquals(-1, timeline.addLive(keyed("k2", "b", "2", T0 + 1)));
+        assertEquals(0, timeline.addOlder(Arrays.asList(keyed("k1", "a", "1", T0))));
+        assertEquals(2, timeline.size());
+    }
+
+    @Test
+    public void hotWindowOlderThanCache_isInsertedInKeyOrder() {
+        // Caché con los 30 más recientes; la ventana en vivo trae 50 en orden ascendente.
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.restore(range(20, 50));
+        for (Message m : range(0, 50)) timeline.addLive(m);
+
+        assertEquals(50, timeline.size());
+        assertKeysAscending(timeline);
+    }
+
+    @Test
+    public void cacheSeparatedByGap_isDroppedAndRefilledInOrder() {
+        RecordingObserver observer = new RecordingObserver();
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.setObserver(observer);
+        timeline.restore(range(0, 30));
+        // Ventana en vivo: 50 mensajes nuevos desde que se guardó la caché, con 70 en medio.
+        for (Message m : range(100, 150)) timeline.addLive(m);
+
+        assertEquals(30, timeline.removeOlderThan(key(100)));
+        assertEquals("rm 0+30", observer.events.get(observer.events.size() - 1));
+        // La página anterior se inserta arriba, y los mensajes de la caché pueden volver.
+        assertEquals(50, timeline.addOlder(range(50, 100)));
+        assertEquals(30, timeline.addOlder(range(0, 50).subList(20, 50)));
+        assertEquals(130, timeline.size());
+        assertKeysAscending(timeline);
+    }
+
+    @Test
+    public void olderPage_overlappingCache_fillsOnlyTheMissingRows() {
+        RecordingObserver observer = new RecordingObserver();
+        ChatTimeline timeline = new ChatTimeline();
+        timeline.restore(range(40, 60));
+        timeline.setObserver(observer);
+
+        assertEquals(30, timeline.addOlder(range(10, 50)));
+        assertEquals("Un solo tramo contiguo", Arrays.asList("ins 0+30"), observer.events);
+        assertEquals(50, timeline.size());
+        assertKeysAscending(timeline);
+    }
+
+    // --- Utilidades ---
+
+    /** Mensajes k{from}..k{to-1} con claves que ordenan como las push de Firebase. */
+    static List<Message> range(int from, int to) {
+        List<Message> list = new ArrayList<>();
+        for (int i = from; i < to; i++) list.add(keyed(key(i), "bob", "m" + i, T0 + i * 1_000L));
+        return list;
+    }
+
+    static String key(int i) {
+        return String.format(java.util.Locale.US, "k%06d", i);
+    }
+
+    static void assertKeysAscending(ChatTimeline timeline) {
+        List<Message> messages = timeline.messages();
+        for (int i = 1; i < messages.size(); i++) {
+            assertTrue("Fuera de orden en " + i, messages.get(i - 1).id.compareTo(messages.get(i).id) < 0);
+        }
+    }
+
+    static Message keyed(String id, String sender, String text, long timestamp) {
+        Message msg = new Message(sender, text, timestamp);
+        msg.id = id;
+        return msg;
+    }
+
+    static class RecordingObserver implements ChatTimeline.Observer {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onInserted(int position, int count) {
+            events.add(count == 1 ? "ins " + position : "ins " + position + "+" + count);
+        }
+
+        @Override
+        public void onChanged(int position, boolean stateOnly) {
+            events.add((stateOnly ? "state " : "chg ") + position);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("rm " + position + "+" + count);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.conectamobile;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Flood reproducible del canal público contra IngressFilter, con reloj virtual:
+ * miles de mensajes por segundo sin broker ni esperas reales.
+ */
+public class IngressFilterFloodTest {
+
+    private static final int FLOOD_PER_SECOND = 5_000;
+    private static final int SECONDS = 2;
+
+    @Test
+    public void noisySender_onlySilencesItself() {
+        IngressFilter filter = IngressFilter.forPublicChannel(0);
+        int spamAccepted = 0, legitAccepted = 0, legitSent = 0;
+
+        for (int i = 0; i < FLOOD_PER_SECOND * SECONDS; i++) {
+            long now = i * 1000L / FLOOD_PER_SECOND;
+            if (filter.offer("spam", "spam " + i, now) == IngressFilter.Verdict.ACCEPTED) spamAccepted++;
+            // Un usuario normal escribe un mensaje por segundo en medio del flood.
+            if (i % FLOOD_PER_SECOND == 0) {
+                legitSent++;
+                if (filter.offer("ana", "hola " + i, now) == IngressFilter.Verdict.ACCEPTED) legitAccepted++;
+            }
+            filter.poll(Integer.MAX_VALUE); // El hilo principal drena a tiempo
+        }
+
+        assertEquals("El flood no debe afectar a los demás emisores", legitSent, legitAccepted);
+        // Ráfaga de 5 + 2/s durante la ventana.
+        assertTrue("Aceptados del flood: " + spamAccepted, spamAccepted <= 5 + 2 * SECONDS);
+    }
+
+    @Test
+    public void distributedFlood_isCappedByGlobalCeilingAndQueue() {
+        IngressFilter filter = IngressFilter.forPublicChannel(0);
+        int accepted = 0, maxQueued = 0;
+
+        // Miles de identidades distintas (un atacante que rota subtópicos), sin drenar.
+        for (int i = 0; i < FLOOD_PER_SECOND * SECONDS; i++) {
+            long now = i * 1000L / FLOOD_PER_SECOND;
+            if (filter.offer("bot" + i, "spam " + i, now) == IngressFilter.Verdict.ACCEPTED) accepted++;
+            maxQueued = Math.max(maxQueued, filter.size());
+        }
+
+        // Ráfaga global de 40 + 20/s.
+        assertTrue("Aceptados: " + accepted, accepted <= 40 + 20 * SECONDS);
+        assertTrue("Mensajes en cola: " + maxQueued, maxQueued <= 200);
+    }
+
+    @Test
+    public void inboxFlood_rotatingSubtopics_isCappedPerConnection() {
+        IngressFilter filter = IngressFilter.forPrivateTopics(0);
+        int accepted = 0;
+
+        // Un cliente externo publica en conectamobile/inbox/{uid}/{chatId inventado}, sin drenar.
+        for (int i = 0; i < FLOOD_PER_SECOND * SECONDS; i++) {
+            long now = i * 1000L / FLOOD_PER_SECOND;
+            if (filter.offer("conectamobile/inbox/me/x" + i, "spam", now) == IngressFilter.Verdict.ACCEPTED) accepted++;
+        }
+
+        // Ráfaga total de 100 + 50/s.
+        assertTrue("Aceptados: " + accepted, accepted <= 100 + 50 * SECONDS);
+        assertTrue(filter.size() <= 500);
+    }
+
+    @Test
+    public void retainedPresence_onSubscribe_isNotThrottled() {
+        IngressFilter filter = IngressFilter.forPrivateTopics(0);
+        // Al suscribirse a las filas visibles el broker entrega todos los valores retenidos juntos.
+        for (int i = 0; i < 60; i++) {
+            assertEquals(IngressFilter.Verdict.ACCEPTED, filter.offer("conectamobile/presence/uid" + i, "1", 0));
+        }
+        assertEquals(60, filter.poll(Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void boundedQueue_dropsOldestWhenNotDrained() {
+        IngressFilter filter = new IngressFilter("test", 10, 1_000, 1_000, 1_000, 1_000, 256, 0);
+        for (int i = 0; i < 100; i++) filter.offer("s" + i, "m" + i, 0);
+
+        List<IngressFilter.Item> items = filter.poll(Integer.MAX_VALUE);
+        assertEquals(10, items.size());
+        assertEquals("Se conservan los más recientes", "m90", items.get(0).payload);
+        assertEquals("m99", items.get(9).payload);
+    }
+
+    @Test
+    public void identicalMessages_areCollapsed() {
+        IngressFilter filter = IngressFilter.forPublicChannel(0);
+        assertEquals(IngressFilter.Verdict.ACCEPTED, filter.offer("bot", "compra ya", 0));
+        assertEquals(IngressFilter.Verdict.COLLAPSED, filter.offer("bot", "compra ya", 0));
+        assertEquals(IngressFilter.Verdict.COLLAPSED, filter.offer("bot", "compra ya", 0));
+
+        List<IngressFilter.Item> items = filter.poll(Integer.MAX_VALUE);
+        assertEquals(1, items.size());
+        assertEquals(2, items.get(0).repeats());
+
+        // Ya entregado: el mismo texto vuelve a ocupar un lugar propio.
+        assertEquals(IngressFilter.Verdict.ACCEPTED, filter.offer("bot", "compra ya", 10_000));
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.conectamobile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Formato en disco de MessageJournal: recuperación tras una escritura interrumpida,
+ * estado de los pendientes entre reinicios y compactación de segmentos.
+ * Cada "reinicio" cierra el diario y abre otro sobre el mismo directorio, como un proceso nuevo.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class MessageJournalTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tornTail_isTruncatedOnRecovery() throws Exception {
+        File dir = folder.newFolder("journal");
+        MessageJournal journal = new MessageJournal(dir);
+        journal.appendPending("k1", "chat", message("uno"));
+        journal.appendPending("k2", "chat", message("dos"));
+        journal.close();
+        File segment = onlySegment(dir);
+        long validLength = segment.length();
+
+        // Crash a mitad de escritura: la cabecera promete 100 bytes y solo llegaron 10.
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(validLength);
+            raf.writeInt(100);
+            raf.writeInt(0);
+            raf.write(new byte[10]);
+        }
+
+        assertEquals(Arrays.asList("k1", "k2"), pendingIds(dir));
+        assertEquals("La cola incompleta se descarta del archivo", validLength, segment.length());
+    }
+
+    @Test
+    public void corruptedLastRecord_isDroppedOnRecovery() throws Exception {
+        File dir = folder.newFolder("journal");
+        MessageJournal journal = new MessageJournal(dir);
+        journal.appendPending("k1", "chat", message("uno"));
+        journal.appendPending("k2", "chat", message("dos"));
+        journal.close();
+        long validLength = onlySegment(dir).length();
+
+        journal = new MessageJournal(dir);
+        journal.appendPending("k3", "chat", message("tres"));
+        journal.close();
+        // Un byte del payload del último registro cambia: el CRC ya no coincide.
+        try (RandomAccessFile raf = new RandomAccessFile(onlySegment(dir), "rw")) {
+            long offset = validLength + 8 + 1;
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xFF);
+        }
+
+        assertEquals(Arrays.asList("k1", "k2"), pendingIds(dir));
+        assertEquals(validLength, onlySegment(dir).length());
+    }
+
+    @Test
+    public void pendingAckAndPublished_surviveRestart() throws Exception {
+        File dir = folder.newFolder("journal");
+        MessageJournal journal = new MessageJournal(dir);
+        journal.appendPending("k1", "chat", message("uno"));
+        journal.appendPending("k2", "chat", message("dos"));
+        journal.appendPending("k3", "chat", message("tres"));
+        journal.ack("k2");          // Firebase confirmó
+        journal.markPublished("k1"); // Ya salió por MQTT
+        journal.close();
+
+        journal = new MessageJournal(dir);
+        List<String> pending = new ArrayList<>();
+        List<String> unpublished = new ArrayList<>();
+        journal.reconcilePending(r -> pending.add(r.id));
+        journal.replayUnpublished(r -> unpublished.add(r.id));
+        journal.close();
+
+        assertEquals(Arrays.asList("k1", "k3"), pending);
+        assertEquals(Collections.singletonList("k3"), unpublished);
+    }
+
+    @Test
+    public void compaction_keepsOnlyLivePendingAndDeletesOldSegments() throws Exception {
+        File dir = folder.newFolder("journal");
+        MessageJournal journal = new MessageJournal(dir);
+        // ~16 KB por registro: varias rotaciones de segmento (256 KB) y al menos una compactación.
+        char[] filler = new char[16 * 1024];
+        Arrays.fill(filler, 'x');
+        String big = new String(filler);
+        for (int i = 0; i < 120; i++) {
+            journal.appendPending("k" + i, "chat", message(big + i));
+            if (i != 3 && i != 117) journal.ack("k" + i);
+        }
+        journal.close();
+
+        File[] segments = dir.listFiles();
+        assertNotNull(segments);
+        assertTrue("Segmentos en disco: " + segments.length, segments.length <= 4);
+        assertFalse("El primer segmento se borra al compactar", new File(dir, "journal-00000000.log").exists());
+        // k3 solo sobrevive si la compactación lo reescribió antes de borrar su segmento.
+        assertEquals(new HashSet<>(Arrays.asList("k3", "k117")), new HashSet<>(pendingIds(dir)));
+    }
+
+    // --- Utilidades ---
+
+    /** Pendientes sin confirmar tras un reinicio, en orden de llegada. */
+    private static List<String> pendingIds(File dir) throws InterruptedException {
+        MessageJournal journal = new MessageJournal(dir);
+        List<String> ids = new ArrayList<>();
+        journal.reconcilePending(r -> ids.add(r.id));
+        journal.close();
+        return ids;
+    }
+
+    private static File onlySegment(File dir) throws IOException {
+        File[] segments = dir.listFiles();
+        if (segments == null || segments.length != 1) throw new IOException("Se esperaba un segmento en " + dir);
+        return segments[0];
+    }
+
+    private static Message message(String text) {
+        return new Message("uid_me", text, T0);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.conectamobile;
+
+import com.google.firebase.database.core.utilities.encoding.CustomClassMapper;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark del mapeador escrito a mano frente al mapeador reflexivo de Firebase
+ * (CustomClassMapper, el que usa snap.getValue(Class) internamente), con el mismo Map
+ * crudo que produce snap.getValue().
+ *
+ * Solo informa ns/mensaje, no afirma nada: el tiempo depende de la máquina y del JIT.
+ * Es opcional para no alargar la suite: ./gradlew testDebugUnitTest -Pbenchmarks
+ */
+public class SnapshotMapperBenchmarkTest {
+
+    private static final int MESSAGES = 10_000;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void handWrittenVsReflective_nsPerMessage() {
+        Assume.assumeTrue("Benchmark opcional (-Pbenchmarks)", Boolean.getBoolean("benchmarks"));
+        List<Map<String, Object>> raw = SnapshotMapperTest.rawMessages(MESSAGES);
+
+        long reflectiveNs = 0, manualNs = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (Map<String, Object> map : raw) CustomClassMapper.convertToCustomClass(map, Message.class);
+            long mid = System.nanoTime();
+            for (Map<String, Object> map : raw) SnapshotMapper.toMessage(map);
+            long end = System.nanoTime();
+
+            // La primera mitad de las rondas es calentamiento del JIT; solo cuenta la segunda.
+            if (round >= ROUNDS / 2) {
+                reflectiveNs += mid - start;
+                manualNs += end - mid;
+            }
+        }
+
+        int measured = (ROUNDS - ROUNDS / 2) * MESSAGES;
+        System.out.printf("SnapshotMapper: reflexivo %d ns/mensaje, manual %d ns/mensaje%n",
+                reflectiveNs / measured, manualNs / measured);
+    }
+}
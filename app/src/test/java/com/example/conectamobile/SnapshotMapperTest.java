@@ -0,0 +1,63 @@
+package com.example.conectamobile;
+
+import com.google.firebase.database.core.utilities.encoding.CustomClassMapper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Paridad del mapeador escrito a mano con el mapeador reflexivo de Firebase
+ * (CustomClassMapper, el que usa snap.getValue(Class) internamente).
+ * Ambos reciben el mismo Map crudo que produce snap.getValue().
+ * La comparación de velocidad está en SnapshotMapperBenchmarkTest.
+ */
+public class SnapshotMapperTest {
+
+    static List<Map<String, Object>> rawMessages(int count) {
+        List<Map<String, Object>> raw = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("senderId", "uid" + (i % 7));
+            map.put("text", "Mensaje de prueba número " + i);
+            map.put("timestamp", 1_700_000_000_000L + i);
+            raw.add(map);
+        }
+        return raw;
+    }
+
+    @Test
+    public void handWrittenMapper_matchesReflectiveMapper() {
+        for (Map<String, Object> map : rawMessages(100)) {
+            Message reflective = CustomClassMapper.convertToCustomClass(map, Message.class);
+            Message manual = SnapshotMapper.toMessage(map);
+            assertEquals(reflective.senderId, manual.senderId);
+            assertEquals(reflective.text, manual.text);
+            assertEquals(reflective.timestamp, manual.timestamp);
+        }
+
+        Map<String, Object> user = new HashMap<>();
+        user.put("uid", "u1");
+        user.put("email", "a@b.cl");
+        user.put("name", "Ana");
+        user.put("photoUrl", "");
+        User reflectiveUser = CustomClassMapper.convertToCustomClass(user, User.class);
+        User manualUser = SnapshotMapper.toUser(user);
+        assertEquals(reflectiveUser.uid, manualUser.uid);
+        assertEquals(reflectiveUser.email, manualUser.email);
+        assertEquals(reflectiveUser.name, manualUser.name);
+        assertEquals(reflectiveUser.photoUrl, manualUser.photoUrl);
+
+        // Ida y vuelta: lo que escribimos se lee igual.
+        Message original = new Message("uid1", "hola", 42L);
+        Message roundTrip = SnapshotMapper.toMessage(SnapshotMapper.fromMessage(original));
+        assertEquals(original.senderId, roundTrip.senderId);
+        assertEquals(original.text, roundTrip.text);
+        assertEquals(original.timestamp, roundTrip.timestamp);
+    }
+}